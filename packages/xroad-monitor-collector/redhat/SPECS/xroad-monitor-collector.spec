@@ -31,6 +31,9 @@ mkdir -p %{buildroot}%{conf}
 mkdir -p %{buildroot}%{_unitdir}
 mkdir -p %{buildroot}/usr/share/xroad/bin
 mkdir -p %{buildroot}/var/log/xroad
+mkdir -p %{buildroot}/var/spool/xroad-monitor-collector
+mkdir -p %{buildroot}/var/lib/xroad-monitor-collector/history
+mkdir -p %{buildroot}/var/lib/xroad-monitor-collector/data
 mkdir -p %{buildroot}/etc/cron.d
 cp -p %{src}/../../../build/libs/xroad-monitor-collector.jar %{buildroot}%{jlib}
 cp -p %{src}/SOURCES/%{name} %{buildroot}/usr/share/xroad/bin
@@ -47,6 +50,10 @@ rm -rf %{buildroot}
 %attr(744,xroad,xroad) %{jlib}/%{name}.jar
 %attr(744,xroad,xroad) %config /usr/share/xroad/bin/%{name}
 %attr(644,xroad,xroad) %config /etc/xroad/xroad-monitor-collector/application.properties
+%dir %attr(755,xroad,xroad) /var/spool/xroad-monitor-collector
+%dir %attr(755,xroad,xroad) /var/lib/xroad-monitor-collector
+%dir %attr(755,xroad,xroad) /var/lib/xroad-monitor-collector/history
+%dir %attr(755,xroad,xroad) /var/lib/xroad-monitor-collector/data
 
 %pre
 
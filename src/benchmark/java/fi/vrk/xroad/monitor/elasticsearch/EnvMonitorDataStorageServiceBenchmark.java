@@ -0,0 +1,115 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.elasticsearch;
+
+import fi.vrk.xroad.monitor.spool.MonitorDataSpool;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static fi.vrk.xroad.monitor.util.MonitorCollectorDataUtils.getIndexName;
+
+/**
+ * Throughput of {@link EnvMonitorDataStorageServiceImpl#save(BytesReference)} from concurrent handler actors.
+ * The DAO only burns CPU for the time it takes to queue a document. {@link #saveGlobalLock()} saves like the
+ * service used to, holding a global lock and computing the index name for every document.
+ * Run with different thread counts, for example {@code -t 1} and {@code -t 4}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnvMonitorDataStorageServiceBenchmark {
+
+  private static final long QUEUE_TOKENS = 200;
+
+  private final BytesReference document = new BytesArray("{\"serverCode\":\"gdev-ss1.example.com\"}");
+  private final Object lock = new Object();
+
+  private EnvMonitorDataStorageServiceImpl service;
+  private EnvMonitorDataStorageDao dao;
+  private MockEnvironment environment;
+
+  /**
+   * Creates the service with a DAO that does not connect to Elasticsearch and a disabled spool
+   */
+  @Setup
+  public void setup() throws IOException {
+    environment = new MockEnvironment()
+        .withProperty("xroad-monitor-collector-elasticsearch.index", "benchmark-envdata")
+        .withProperty("xroad-monitor-collector-elasticsearch.type", "benchmark-envdata")
+        .withProperty("xroad-monitor-collector-elasticsearch.alias", "benchmark-envdata-latest");
+    dao = (EnvMonitorDataStorageDao) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] {EnvMonitorDataStorageDao.class}, (proxy, method, args) -> {
+          Blackhole.consumeCPU(QUEUE_TOKENS);
+          return CompletableFuture.completedFuture(null);
+        });
+    final MonitorDataSpool spool = new MonitorDataSpool();
+    ReflectionTestUtils.setField(spool, "environment", environment);
+    spool.init();
+    service = new EnvMonitorDataStorageServiceImpl();
+    ReflectionTestUtils.setField(service, "envMonitorDataStorageDao", dao);
+    ReflectionTestUtils.setField(service, "environment", environment);
+    ReflectionTestUtils.setField(service, "spool", spool);
+    service.init();
+  }
+
+  /**
+   * Lock free save
+   */
+  @Benchmark
+  public void save() {
+    service.save(null, document);
+  }
+
+  /**
+   * Save holding a global lock
+   */
+  @Benchmark
+  public void saveGlobalLock() {
+    synchronized (lock) {
+      final String index = getIndexName(environment);
+      final String type = environment.getProperty("xroad-monitor-collector-elasticsearch.type");
+      dao.addToBulk(index, type, document);
+    }
+  }
+}
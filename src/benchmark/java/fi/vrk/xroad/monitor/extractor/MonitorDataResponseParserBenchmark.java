@@ -0,0 +1,133 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.extractor;
+
+import ee.ria.xroad.proxymonitor.message.GetSecurityServerMetricsResponse;
+import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import org.apache.commons.io.FileUtils;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-response cost of parsing {@code src/test/resources/envmonitor.xml} wrapped in a monitoring response.
+ * {@link #parsePerCallContext()} creates the parser factories and JAXB context for every response like the
+ * parser used to, {@link #parseCachedContext()} reuses them like the parser does now.
+ * {@link #getMetricDocumentStreaming()} is the single pass alternative to {@link #getMetricDocument()}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MonitorDataResponseParserBenchmark {
+
+    private static final String METRIC_SET_FILE = "src/test/resources/envmonitor.xml";
+    private static final String RESPONSE_ELEMENT = "m:getSecurityServerMetricsResponse";
+
+    private final SecurityServerInfo info = new SecurityServerInfo("gdev-ss1.example.com",
+        "gdev-ss1.example.com", "GOV", "1710128-9");
+    private final MonitorDataResponseParser parser = new MonitorDataResponseParser();
+    private final MonitorDataStreamingResponseParser streamingParser = new MonitorDataStreamingResponseParser();
+
+    private String response;
+    private DocumentBuilder documentBuilder;
+    private Unmarshaller unmarshaller;
+
+    /**
+     * Reads the metric set and creates the cached parsers
+     */
+    @Setup
+    public void setup() throws Exception {
+        response = wrapInResponse(FileUtils.readFileToString(new File(METRIC_SET_FILE), StandardCharsets.UTF_8));
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        documentBuilder = factory.newDocumentBuilder();
+        unmarshaller = JAXBContext.newInstance(GetSecurityServerMetricsResponse.class).createUnmarshaller();
+    }
+
+    /**
+     * Parse and unmarshal with factories and JAXB context created per response
+     */
+    @Benchmark
+    public Object parsePerCallContext() throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(response)));
+        return JAXBContext.newInstance(GetSecurityServerMetricsResponse.class).createUnmarshaller()
+            .unmarshal(document.getElementsByTagName(RESPONSE_ELEMENT).item(0));
+    }
+
+    /**
+     * Parse and unmarshal with reused document builder and unmarshaller
+     */
+    @Benchmark
+    public Object parseCachedContext() throws Exception {
+        Document document = documentBuilder.parse(new InputSource(new StringReader(response)));
+        documentBuilder.reset();
+        return unmarshaller.unmarshal(document.getElementsByTagName(RESPONSE_ELEMENT).item(0));
+    }
+
+    /**
+     * Complete response handling of {@link MonitorDataResponseParser}, including JSON formatting
+     */
+    @Benchmark
+    public BytesReference getMetricDocument() {
+        return parser.getMetricDocument(response, info, "FI");
+    }
+
+    /**
+     * Complete response handling of {@link MonitorDataStreamingResponseParser}
+     */
+    @Benchmark
+    public BytesReference getMetricDocumentStreaming() {
+        return streamingParser.getMetricDocument(response, info, "FI");
+    }
+
+    private static String wrapInResponse(String metricSet) {
+        return "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+            + "xmlns:m=\"http://x-road.eu/xsd/monitoring\"><SOAP-ENV:Body>"
+            + "<" + RESPONSE_ELEMENT + ">" + metricSet + "</" + RESPONSE_ELEMENT + ">"
+            + "</SOAP-ENV:Body></SOAP-ENV:Envelope>";
+    }
+}
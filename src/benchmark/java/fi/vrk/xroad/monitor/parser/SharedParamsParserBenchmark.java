@@ -0,0 +1,142 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.parser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of parsing a synthetic shared-params.xml of 50k members. {@link #parseDocument()} is the DOM parse
+ * that searches each owner from all members, measured as single shots because one parse takes seconds.
+ * {@link #parseStreaming()} is the single pass parse with a member index and {@link #parseUnchanged()} the
+ * parse of a file whose content has not changed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SharedParamsParserBenchmark {
+
+    @Param({"50000"})
+    private int members;
+
+    @Param({"100"})
+    private int securityServers;
+
+    private final SharedParamsParser parser = new SharedParamsParser();
+
+    private File file;
+    private byte[] content;
+
+    /**
+     * Writes the synthetic shared-params.xml and parses it once to fill the cache
+     */
+    @Setup
+    public void setup() throws Exception {
+        file = File.createTempFile("shared-params", ".xml");
+        try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>");
+            writer.println("<ns3:conf xmlns:ns2=\"http://x-road.eu/xsd/identifiers\" "
+                + "xmlns:ns3=\"http://x-road.eu/xsd/xroad.xsd\">");
+            writer.println("<instanceIdentifier>FI</instanceIdentifier>");
+            for (int i = 0; i < members; i++) {
+                writer.println("<member id=\"id" + i + "\"><memberClass><code>GOV</code>"
+                    + "<description>Governmental</description></memberClass>"
+                    + "<memberCode>" + i + "-1</memberCode><name>Member " + i + "</name>"
+                    + "<subsystem id=\"sub" + i + "\"><subsystemCode>SS" + i + "</subsystemCode></subsystem>"
+                    + "</member>");
+            }
+            int step = Math.max(1, members / securityServers);
+            for (int i = 0; i < securityServers; i++) {
+                // owners are spread over all members so that the DOM search has to go through them
+                writer.println("<securityServer><owner>id" + (i * step % members) + "</owner>"
+                    + "<serverCode>ss" + i + "</serverCode><address>ss" + i + ".example.com</address>"
+                    + "<authCertHash>hash</authCertHash><client>sub" + i + "</client></securityServer>");
+            }
+            writer.println("</ns3:conf>");
+        }
+        content = Files.readAllBytes(file.toPath());
+        ReflectionTestUtils.setField(parser, "environment", new MockEnvironment()
+            .withProperty("xroad-monitor-collector.shared-params-file", file.getAbsolutePath()));
+        parser.parse();
+    }
+
+    /**
+     * Removes the synthetic file
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * DOM parse searching the owner of each security server from all members
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public Set<SecurityServerInfo> parseDocument() throws Exception {
+        return SharedParamsParser.parseDocument(file);
+    }
+
+    /**
+     * Single pass parse resolving owners from the member index
+     */
+    @Benchmark
+    public Set<SecurityServerInfo> parseStreaming() throws IOException {
+        try (InputStream in = new ByteArrayInputStream(content)) {
+            return parser.parse(in);
+        }
+    }
+
+    /**
+     * Reading and hashing the file, the cached result is returned
+     */
+    @Benchmark
+    public Set<SecurityServerInfo> parseUnchanged() throws Exception {
+        return parser.parse();
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.sink;
+
+import fi.vrk.xroad.monitor.extractor.MonitorDataStreamingResponseParser;
+import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import org.apache.commons.io.FileUtils;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link MonitorDataFileSink} writing the monitoring document parsed from
+ * {@code src/test/resources/envmonitor.xml}. The files are written to a temporary directory.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MonitorDataFileSinkBenchmark {
+
+  private static final String METRIC_SET_FILE = "src/test/resources/envmonitor.xml";
+  private static final String RESPONSE_ELEMENT = "m:getSecurityServerMetricsResponse";
+
+  private MonitorDataFileSink sink;
+  private BytesReference document;
+  private Path directory;
+
+  /**
+   * Parses the document and creates the sink
+   */
+  @Setup
+  public void setup() throws IOException {
+    final String metricSet = FileUtils.readFileToString(new File(METRIC_SET_FILE), StandardCharsets.UTF_8);
+    final String response = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        + "xmlns:m=\"http://x-road.eu/xsd/monitoring\"><SOAP-ENV:Body>"
+        + "<" + RESPONSE_ELEMENT + ">" + metricSet + "</" + RESPONSE_ELEMENT + ">"
+        + "</SOAP-ENV:Body></SOAP-ENV:Envelope>";
+    document = new MonitorDataStreamingResponseParser().getMetricDocument(response,
+        new SecurityServerInfo("gdev-ss1.example.com", "gdev-ss1.example.com", "GOV", "1710128-9"), "FI");
+    directory = Files.createTempDirectory("monitor-data-file-sink");
+    sink = new MonitorDataFileSink();
+    ReflectionTestUtils.setField(sink, "environment", new MockEnvironment()
+        .withProperty("xroad-monitor-collector-file-sink.directory", directory.toString()));
+    sink.init();
+  }
+
+  /**
+   * Removes the written files
+   */
+  @TearDown
+  public void tearDown() throws IOException {
+    sink.shutdown();
+    FileUtils.deleteDirectory(directory.toFile());
+  }
+
+  /**
+   * Writes one document
+   */
+  @Benchmark
+  public void save() throws ExecutionException, InterruptedException {
+    sink.save(null, document).get();
+  }
+}
@@ -30,9 +30,11 @@ import fi.vrk.xroad.monitor.base.ElasticsearchTestBase;
 import fi.vrk.xroad.monitor.elasticsearch.EnvMonitorDataStorageDao;
 import fi.vrk.xroad.monitor.elasticsearch.EnvMonitorDataStorageDaoImpl;
 import fi.vrk.xroad.monitor.extensions.SpringExtension;
+import fi.vrk.xroad.monitor.extractor.MonitorDataConnectionManager;
 import fi.vrk.xroad.monitor.extractor.MonitorDataExtractor;
 import fi.vrk.xroad.monitor.extractor.MonitorDataRequestBuilder;
 import fi.vrk.xroad.monitor.extractor.MonitorDataResponseParser;
+import fi.vrk.xroad.monitor.extractor.MonitorDataStreamingResponseParser;
 import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.action.search.SearchResponse;
@@ -47,17 +49,19 @@ import org.springframework.test.context.junit4.SpringRunner;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static fi.vrk.xroad.monitor.util.MonitorCollectorDataUtils.getIndexName;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests for {@link MonitorDataHandlerActor}
  */
 @Slf4j
 @SpringBootTest(classes = {MonitorCollectorApplication.class, MonitorDataExtractor.class,
-    MonitorDataRequestBuilder.class, MonitorDataResponseParser.class, EnvMonitorDataStorageDao.class,
-    EnvMonitorDataStorageDaoImpl.class})
+    MonitorDataConnectionManager.class, MonitorDataRequestBuilder.class, MonitorDataResponseParser.class,
+    MonitorDataStreamingResponseParser.class, EnvMonitorDataStorageDao.class, EnvMonitorDataStorageDaoImpl.class})
 @RunWith(SpringRunner.class)
 public class MonitorDataHandlerActorTest extends ElasticsearchTestBase {
 
@@ -119,6 +123,9 @@ public class MonitorDataHandlerActorTest extends ElasticsearchTestBase {
       monitorDataRef.receive(new MonitorDataHandlerActor.MonitorDataRequest(info));
     }
 
+    // results are reported when the data has been written to Elasticsearch
+    assertTrue(envMonitorDataStorageDao.flushBulk(1, TimeUnit.MINUTES));
+
     // assert that result collector actor has received 2 results
     assertEquals(2, resultCollectorActor.getNumProcessedResults());
 
@@ -33,23 +33,39 @@ import fi.vrk.xroad.monitor.base.ElasticsearchTestBase;
 import fi.vrk.xroad.monitor.elasticsearch.EnvMonitorDataStorageDaoImpl;
 import fi.vrk.xroad.monitor.elasticsearch.EnvMonitorDataStorageServiceImpl;
 import fi.vrk.xroad.monitor.extensions.SpringExtension;
+import fi.vrk.xroad.monitor.extractor.MonitorDataConnectionManager;
 import fi.vrk.xroad.monitor.extractor.MonitorDataExtractor;
 import fi.vrk.xroad.monitor.extractor.MonitorDataRequestBuilder;
 import fi.vrk.xroad.monitor.extractor.MonitorDataResponseParser;
+import fi.vrk.xroad.monitor.extractor.MonitorDataStreamingResponseParser;
+import fi.vrk.xroad.monitor.history.CircuitBreaker;
+import fi.vrk.xroad.monitor.history.LatencyHistory;
 import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import fi.vrk.xroad.monitor.parser.SharedParamsParser;
+import fi.vrk.xroad.monitor.parser.SharedParamsWatcher;
+import fi.vrk.xroad.monitor.sink.MonitorDataDocumentIds;
+import fi.vrk.xroad.monitor.sink.MonitorDataSink;
+import fi.vrk.xroad.monitor.spool.MonitorDataSpool;
 import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.junit.*;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.ApplicationContext;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests for {@link Supervisor}
@@ -63,18 +79,34 @@ import static org.junit.Assert.assertEquals;
         ResultCollectorActor.class,
         ElasticsearchInitializerActor.class,
         MonitorDataExtractor.class,
+        MonitorDataConnectionManager.class,
         MonitorDataRequestBuilder.class,
         MonitorDataResponseParser.class,
+        MonitorDataStreamingResponseParser.class,
         EnvMonitorDataStorageDaoImpl.class,
-        EnvMonitorDataStorageServiceImpl.class})
+        EnvMonitorDataStorageServiceImpl.class,
+        MonitorDataSpool.class,
+        MonitorDataDocumentIds.class,
+        SharedParamsParser.class,
+        SharedParamsWatcher.class,
+        LatencyHistory.class,
+        CircuitBreaker.class})
 @RunWith(SpringRunner.class)
 public class SupervisorTest extends ElasticsearchTestBase {
 
     @Autowired
     SpringExtension springExtension;
 
+    @Autowired
+    LatencyHistory latencyHistory;
+
     static ActorSystem system;
 
+    private static final long WAIT_SECONDS = 10;
+    private static final long POLL_MILLIS = 10;
+    // requests are dispatched well before the deadline, so that it ends only runs that do not complete
+    private static final long SHORT_DEADLINE_MILLIS = 200;
+
     @BeforeClass
     public static void setup() {
         system = ActorSystem.create();
@@ -137,4 +169,161 @@ public class SupervisorTest extends ElasticsearchTestBase {
 
     }
 
+    /**
+     * Tests that completions arriving after their run was abandoned at the deadline do not change the counters
+     * of the next run
+     */
+    @Test
+    public void testLateCompletionAfterAbandonedRun() throws InterruptedException {
+        final SecurityServerInfo info = new SecurityServerInfo("Eka", "Osoite", "memberClass", "memberCode");
+        final Set<SecurityServerInfo> securityServerInfos = Collections.singleton(info);
+        // requests are never answered, so the run is abandoned at its deadline
+        final TestKit monitorDataRequestPoolRouter = new TestKit(system);
+
+        final TestActorRef<Supervisor> supervisorRef = TestActorRef.create(system,
+            springExtension.props("supervisor"), "abandoningSupervisor");
+        Supervisor underlying = supervisorRef.underlyingActor();
+        underlying.overrideResultCollectorActor(TestActorRef.create(system, Props.create(ResultCollectorActor.class)));
+        underlying.overrideMonitorDataRequestPoolRouter(monitorDataRequestPoolRouter.getRef());
+        underlying.overrideElasticsearchInitializerActor(TestActorRef.create(system,
+            Props.create(ElasticsearchInitializerActor.class)));
+        ReflectionTestUtils.setField(underlying, "runDeadline", SHORT_DEADLINE_MILLIS);
+        ReflectionTestUtils.setField(underlying, "runDeadlineGrace", 0L);
+
+        supervisorRef.receive(new Supervisor.StartCollectingMonitorDataCommand(securityServerInfos),
+            ActorRef.noSender());
+        monitorDataRequestPoolRouter.expectMsgClass(MonitorDataHandlerActor.MonitorDataRequest.class);
+        awaitRunCompleted(underlying);
+        assertFalse((Boolean) ReflectionTestUtils.getField(underlying, "collecting"));
+
+        final long abandonedRun = (Long) ReflectionTestUtils.getField(underlying, "runTimestamp");
+        supervisorRef.receive(new MonitorDataHandlerActor.MonitorDataRequestCompleted(info, abandonedRun, 0, false,
+            false, false), ActorRef.noSender());
+        supervisorRef.receive(new MonitorDataHandlerActor.MonitorDataSaveCompleted(info, abandonedRun, false),
+            ActorRef.noSender());
+        assertEquals(0, ReflectionTestUtils.getField(underlying, "requestsInFlight"));
+        assertEquals(0, ReflectionTestUtils.getField(underlying, "writesOutstanding"));
+
+        // the next run dispatches its request with the counters of its own
+        ReflectionTestUtils.setField(underlying, "runDeadline", 0L);
+        supervisorRef.receive(new Supervisor.StartCollectingMonitorDataCommand(securityServerInfos),
+            ActorRef.noSender());
+        monitorDataRequestPoolRouter.expectMsgClass(MonitorDataHandlerActor.MonitorDataRequest.class);
+        assertEquals(1, ReflectionTestUtils.getField(underlying, "requestsInFlight"));
+        assertEquals(1, ReflectionTestUtils.getField(underlying, "writesOutstanding"));
+    }
+
+    /**
+     * Tests that security servers left after the deadline of the run get their default data without a request,
+     * and that requests skipped at the deadline are not recorded in the latency history
+     */
+    @Test
+    public void testDefaultDataAfterRunDeadline() throws InterruptedException {
+        final SecurityServerInfo skipped = new SecurityServerInfo("Deadline", "Ohitettu", "memberClass", "memberCode");
+        final SecurityServerInfo left = new SecurityServerInfo("Deadline", "Jaljella", "memberClass", "memberCode");
+        final Set<SecurityServerInfo> securityServerInfos = new HashSet<>();
+        securityServerInfos.add(skipped);
+        securityServerInfos.add(left);
+        final TestKit monitorDataRequestPoolRouter = new TestKit(system);
+
+        final TestActorRef<Supervisor> supervisorRef = TestActorRef.create(system,
+            springExtension.props("supervisor"), "deadlineSupervisor");
+        Supervisor underlying = supervisorRef.underlyingActor();
+        underlying.overrideResultCollectorActor(TestActorRef.create(system, Props.create(ResultCollectorActor.class)));
+        underlying.overrideMonitorDataRequestPoolRouter(monitorDataRequestPoolRouter.getRef());
+        underlying.overrideElasticsearchInitializerActor(TestActorRef.create(system,
+            Props.create(ElasticsearchInitializerActor.class)));
+        // one write at a time, so that the second security server is dispatched after the deadline
+        ReflectionTestUtils.setField(underlying, "maxOutstandingWrites", 1);
+
+        supervisorRef.receive(new Supervisor.StartCollectingMonitorDataCommand(securityServerInfos),
+            ActorRef.noSender());
+        final MonitorDataHandlerActor.MonitorDataRequest request =
+            monitorDataRequestPoolRouter.expectMsgClass(MonitorDataHandlerActor.MonitorDataRequest.class);
+        final SecurityServerInfo first = request.getSecurityServerInfo();
+        final SecurityServerInfo second = first.equals(skipped) ? left : skipped;
+
+        ReflectionTestUtils.setField(underlying, "runDeadline", 1L);
+        Thread.sleep(POLL_MILLIS);
+        supervisorRef.receive(new MonitorDataHandlerActor.MonitorDataRequestCompleted(first,
+            request.getRunTimestamp(), 0, false, false, true), ActorRef.noSender());
+        supervisorRef.receive(new MonitorDataHandlerActor.MonitorDataSaveCompleted(first,
+            request.getRunTimestamp(), false), ActorRef.noSender());
+
+        final MonitorDataHandlerActor.DefaultDataRequest defaultDataRequest =
+            monitorDataRequestPoolRouter.expectMsgClass(MonitorDataHandlerActor.DefaultDataRequest.class);
+        assertEquals(second, defaultDataRequest.getSecurityServerInfo());
+        assertEquals(0, ReflectionTestUtils.getField(underlying, "requestsInFlight"));
+        assertFalse(latencyHistory.isFailing(first, 1, 0));
+
+        supervisorRef.receive(new MonitorDataHandlerActor.MonitorDataSaveCompleted(second,
+            request.getRunTimestamp(), false), ActorRef.noSender());
+        awaitRunCompleted(underlying);
+        assertFalse((Boolean) ReflectionTestUtils.getField(underlying, "collecting"));
+    }
+
+    /**
+     * Tests that a write rejected by storage lowers the bound of outstanding writes, also when the rejected
+     * document was spooled instead
+     */
+    @Test
+    public void testRejectedWriteLowersWriteLimit() {
+        final Set<SecurityServerInfo> securityServerInfos = Collections.singleton(
+            new SecurityServerInfo("Eka", "Osoite", "memberClass", "memberCode"));
+
+        final TestActorRef<ResultCollectorActor> resultCollectorActor = TestActorRef.create(
+            system, Props.create(ResultCollectorActor.class));
+        final TestActorRef<MonitorDataHandlerActor> monitorDataHandlerActor = TestActorRef.create(system,
+            springExtension.props("monitorDataHandlerActor", resultCollectorActor));
+        ReflectionTestUtils.setField(monitorDataHandlerActor.underlyingActor(), "monitorDataSink",
+            new RejectingSink());
+
+        final TestActorRef<Supervisor> supervisorRef = TestActorRef.create(system,
+            springExtension.props("supervisor"), "rejectedSupervisor");
+        Supervisor underlying = supervisorRef.underlyingActor();
+        underlying.overrideResultCollectorActor(resultCollectorActor);
+        underlying.overrideMonitorDataRequestPoolRouter(monitorDataHandlerActor);
+        underlying.overrideElasticsearchInitializerActor(TestActorRef.create(system,
+            Props.create(ElasticsearchInitializerActor.class)));
+
+        supervisorRef.receive(new Supervisor.StartCollectingMonitorDataCommand(securityServerInfos),
+            ActorRef.noSender());
+
+        assertEquals(securityServerInfos.size(), resultCollectorActor.underlyingActor().getNumProcessedResults());
+        assertEquals(1, ReflectionTestUtils.getField(underlying, "writesRejected"));
+        assertTrue((Integer) ReflectionTestUtils.getField(underlying, "writeLimit")
+            < (Integer) ReflectionTestUtils.getField(underlying, "maxOutstandingWrites"));
+    }
+
+    /**
+     * Waits until the run of the supervisor has completed, the run completes when the sink has been flushed
+     */
+    private static void awaitRunCompleted(Supervisor supervisor) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WAIT_SECONDS);
+        while ((Boolean) ReflectionTestUtils.getField(supervisor, "collecting")
+            && System.currentTimeMillis() < deadline) {
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    /**
+     * Sink that spools every document because storage rejects it
+     */
+    private static class RejectingSink implements MonitorDataSink {
+
+        @Override
+        public CompletableFuture<SaveResult> save(String id, String json) {
+            return CompletableFuture.completedFuture(SaveResult.SPOOLED_AFTER_REJECTION);
+        }
+
+        @Override
+        public CompletableFuture<SaveResult> save(String id, BytesReference document) {
+            return CompletableFuture.completedFuture(SaveResult.SPOOLED_AFTER_REJECTION);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> flush() {
+            return CompletableFuture.completedFuture(true);
+        }
+    }
 }
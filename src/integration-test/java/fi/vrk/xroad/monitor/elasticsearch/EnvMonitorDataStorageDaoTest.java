@@ -26,9 +26,11 @@ import fi.vrk.xroad.monitor.base.ElasticsearchTestBase;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.admin.indices.rollover.RolloverResponse;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesArray;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -38,7 +40,9 @@ import org.springframework.test.context.junit4.SpringRunner;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -60,6 +64,11 @@ public class EnvMonitorDataStorageDaoTest extends ElasticsearchTestBase {
   private static final String INDEXTYPE_MAPPING1 = "integrationtest-mapping1";
   private static final String INDEXTYPE_MAPPING2 = "integrationtest-mapping2";
   private static final String INDEXTYPE_CREATE = "integrationtest-create";
+  private static final String INDEXTYPE_BULK = "integrationtest-bulk";
+  private static final String INDEXTYPE_TEMPLATE = "integrationtest-template";
+  private static final String INDEXTYPE_ROLLOVER = "integrationtest-rollover";
+  private static final String INDEX_TEMPLATE_FILE = "src/main/resources/index-template.json";
+  private static final String MONITOR_DATA_JSON_FILE = "src/test/resources/exampleResponse.json";
 
   /**
    * Cleanup test data
@@ -74,6 +83,10 @@ public class EnvMonitorDataStorageDaoTest extends ElasticsearchTestBase {
     removeIndex(INDEXTYPE_MAPPING1);
     removeIndex(INDEXTYPE_MAPPING2);
     removeIndex(INDEXTYPE_CREATE);
+    removeIndex(INDEXTYPE_BULK);
+    removeIndex(INDEXTYPE_TEMPLATE + "-1");
+    removeIndex(INDEXTYPE_ROLLOVER + "-000001");
+    removeIndex(INDEXTYPE_ROLLOVER + "-000002");
   }
 
   @Test
@@ -189,4 +202,61 @@ public class EnvMonitorDataStorageDaoTest extends ElasticsearchTestBase {
     assertEquals(loopCount, envMonitorDataStorageDao.findAll(INDEXTYPE_MAPPING2, INDEXTYPE_MAPPING2)
         .getHits().getTotalHits());
   }
+
+  @Test
+  public void shouldIndexQueuedDocumentsOnFlush() throws IOException, ExecutionException, InterruptedException {
+    final int loopCount = 50;
+    try (FileInputStream inputStream = new FileInputStream(COMPLEX_JSON_FILE)) {
+      BytesArray json = new BytesArray(IOUtils.toByteArray(inputStream));
+      for (int i = 0; i < loopCount; i++) {
+        envMonitorDataStorageDao.addToBulk(INDEXTYPE_BULK, INDEXTYPE_BULK, json);
+      }
+    }
+    assertTrue(envMonitorDataStorageDao.flushBulk(1, TimeUnit.MINUTES));
+    envMonitorDataStorageDao.flush();
+    assertEquals(loopCount, envMonitorDataStorageDao.findAll(INDEXTYPE_BULK, INDEXTYPE_BULK)
+        .getHits().getTotalHits());
+  }
+
+  @Test
+  public void shouldIndexMonitorDataWithIndexTemplate() throws IOException, ExecutionException,
+      InterruptedException {
+    final String index = INDEXTYPE_TEMPLATE + "-1";
+    try (FileInputStream templateStream = new FileInputStream(INDEX_TEMPLATE_FILE);
+         FileInputStream inputStream = new FileInputStream(MONITOR_DATA_JSON_FILE)) {
+      assertTrue(envMonitorDataStorageDao.putIndexTemplate(INDEXTYPE_TEMPLATE, INDEXTYPE_TEMPLATE + "-*",
+          INDEXTYPE_TEMPLATE, IOUtils.toString(templateStream, Charset.defaultCharset())).isAcknowledged());
+      envMonitorDataStorageDao.createIndex(index);
+      IndexResponse save = envMonitorDataStorageDao.save(index, INDEXTYPE_TEMPLATE,
+          IOUtils.toString(inputStream, Charset.defaultCharset()));
+      assertEquals(DocWriteResponse.Result.CREATED, save.getResult());
+    }
+  }
+
+  @Test
+  public void shouldMoveAliasToSingleIndex() throws ExecutionException, InterruptedException {
+    final String testAlias = "testMoveAlias";
+    envMonitorDataStorageDao.createIndex(INDEXTYPE_ALIAS);
+    envMonitorDataStorageDao.createIndex(INDEXTYPE_CREATE);
+    envMonitorDataStorageDao.moveAlias(INDEXTYPE_ALIAS, testAlias);
+    assertEquals(Collections.singleton(INDEXTYPE_ALIAS), envMonitorDataStorageDao.getAliasIndexes(testAlias));
+    envMonitorDataStorageDao.moveAlias(INDEXTYPE_CREATE, testAlias);
+    assertEquals(Collections.singleton(INDEXTYPE_CREATE), envMonitorDataStorageDao.getAliasIndexes(testAlias));
+    envMonitorDataStorageDao.removeAllIndexesFromAlias(testAlias);
+    assertTrue(envMonitorDataStorageDao.getAliasIndexes(testAlias).isEmpty());
+  }
+
+  @Test
+  public void shouldRolloverWhenConditionIsMet() throws ExecutionException, InterruptedException {
+    final String testAlias = "testRolloverAlias";
+    final long maxDocs = 1000;
+    envMonitorDataStorageDao.createIndex(INDEXTYPE_ROLLOVER + "-000001");
+    envMonitorDataStorageDao.moveAlias(INDEXTYPE_ROLLOVER + "-000001", testAlias);
+    assertFalse(envMonitorDataStorageDao.rollover(testAlias, 0, maxDocs, 0).isRolledOver());
+    RolloverResponse rollover = envMonitorDataStorageDao.rollover(testAlias, 1, 0, 0);
+    assertTrue(rollover.isRolledOver());
+    assertEquals(INDEXTYPE_ROLLOVER + "-000002", rollover.getNewIndex());
+    assertEquals(Collections.singleton(INDEXTYPE_ROLLOVER + "-000002"),
+        envMonitorDataStorageDao.getAliasIndexes(testAlias));
+  }
 }
@@ -46,7 +46,7 @@ import static org.junit.Assert.assertNotNull;
  */
 @Slf4j
 @SpringBootTest(classes = {MonitorDataRequestBuilder.class, MonitorDataExtractor.class,
-    MonitorDataResponseParser.class})
+    MonitorDataResponseParser.class, MonitorDataStreamingResponseParser.class, MonitorDataConnectionManager.class})
 @RunWith(SpringRunner.class)
 public class MonitorDataExtractorTest {
 
@@ -25,20 +25,26 @@ package fi.vrk.xroad.monitor;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import fi.vrk.xroad.monitor.actor.CollectionSchedule;
 import fi.vrk.xroad.monitor.actor.Supervisor;
+import fi.vrk.xroad.monitor.configuration.CollectorInstances;
 import fi.vrk.xroad.monitor.extensions.SpringExtension;
 import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
 import fi.vrk.xroad.monitor.parser.SharedParamsParser;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.core.env.Environment;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -47,7 +53,9 @@ import java.util.Set;
 @Slf4j
 @Configuration
 @EnableAutoConfiguration
-@ComponentScan("fi.vrk.xroad.monitor")
+@ComponentScan(value = "fi.vrk.xroad.monitor",
+    excludeFilters = @ComponentScan.Filter(type = FilterType.CUSTOM,
+        classes = CollectorInstances.InstanceComponentFilter.class))
 @SuppressWarnings("checkstyle:HideUtilityClassConstructor")
 public class MonitorCollectorApplication {
     /**
@@ -58,13 +66,35 @@ public class MonitorCollectorApplication {
     public static void main(String[] args) {
         log.info("X-Road Monitor Collector started");
         ApplicationContext context = SpringApplication.run(MonitorCollectorApplication.class, args);
+        Map<String, ApplicationContext> instanceContexts = context.getBean(CollectorInstances.class).createContexts();
+        if (instanceContexts.isEmpty()) {
+            start(context, "supervisor");
+            return;
+        }
+        // instances are collected in parallel, each by its own supervisor
+        instanceContexts.forEach((name, instanceContext) -> start(instanceContext, "supervisor-" + name));
+    }
+
+    /**
+     * Starts collecting with the components of the given context
+     */
+    private static void start(ApplicationContext context, String supervisorName) {
         ActorSystem system = context.getBean(ActorSystem.class);
         SpringExtension ext = context.getBean(SpringExtension.class);
+        Environment environment = context.getEnvironment();
+
+        if (environment.getProperty(MonitorCollectorPropertyKeys.DAEMON, Boolean.class, false)) {
+            // keep running and collect on schedule
+            CollectionSchedule schedule = CollectionSchedule.create(environment);
+            ActorRef supervisor = system.actorOf(ext.props("supervisor"), supervisorName);
+            supervisor.tell(new Supervisor.ScheduleCollectingMonitorDataCommand(schedule), ActorRef.noSender());
+            return;
+        }
 
         SharedParamsParser parser = context.getBean(SharedParamsParser.class);
         Set<SecurityServerInfo> securityServerInfos;
         try {
-            log.info("Parse global configuration");
+            log.info("Parse global configuration of {}", supervisorName);
             securityServerInfos = parser.parse();
             log.debug("Parsed results: {}", securityServerInfos.toString());
         } catch (ParserConfigurationException | IOException | SAXException e) {
@@ -72,7 +102,7 @@ public class MonitorCollectorApplication {
             throw new RuntimeException(e);
         }
 
-        ActorRef supervisor = system.actorOf(ext.props("supervisor"));
+        ActorRef supervisor = system.actorOf(ext.props("supervisor"), supervisorName);
         supervisor.tell(new Supervisor.StartCollectingMonitorDataCommand(securityServerInfos), ActorRef.noSender());
     }
 }
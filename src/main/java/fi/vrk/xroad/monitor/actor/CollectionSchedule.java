@@ -0,0 +1,86 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.actor;
+
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.support.CronSequenceGenerator;
+import org.springframework.util.StringUtils;
+
+import java.util.Date;
+
+/**
+ * Times of scheduled collection runs in daemon mode, given as a cron expression or a fixed interval
+ */
+public final class CollectionSchedule {
+
+    // null when runs are started at a fixed interval
+    private final CronSequenceGenerator cron;
+    private final long interval;
+
+    private CollectionSchedule(CronSequenceGenerator cron, long interval) {
+        this.cron = cron;
+        this.interval = interval;
+    }
+
+    /**
+     * Create schedule configured with xroad-monitor-collector.schedule properties
+     * @param environment
+     * @return schedule
+     * @throws IllegalArgumentException if the cron expression or the interval is invalid
+     */
+    public static CollectionSchedule create(Environment environment) {
+        final String expression = environment.getProperty(MonitorCollectorPropertyKeys.SCHEDULE_CRON);
+        if (StringUtils.hasText(expression)) {
+            return new CollectionSchedule(new CronSequenceGenerator(expression.trim()), 0);
+        }
+        final long interval = environment.getProperty(MonitorCollectorPropertyKeys.SCHEDULE_INTERVAL, Long.class,
+            MonitorCollectorConstants.DEFAULT_SCHEDULE_INTERVAL);
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Invalid schedule interval " + interval);
+        }
+        return new CollectionSchedule(null, interval);
+    }
+
+    /**
+     * @param now current time in milliseconds
+     * @return time of the first run, at once with a fixed interval
+     */
+    public long first(long now) {
+        return cron != null ? next(now) : now;
+    }
+
+    /**
+     * @param time time in milliseconds
+     * @return time of the run following the given time
+     */
+    public long next(long time) {
+        return cron != null ? cron.next(new Date(time)).getTime() : time + interval;
+    }
+
+    @Override
+    public String toString() {
+        return cron != null ? "cron " + cron : "every " + interval + " ms";
+    }
+}
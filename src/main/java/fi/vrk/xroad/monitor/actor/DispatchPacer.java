@@ -0,0 +1,114 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.actor;
+
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import org.springframework.core.env.Environment;
+
+import java.util.Random;
+
+/**
+ * Pace of sending monitoring data requests in a collection run. Requests are either sent at once, limited only
+ * by the concurrency limiter, or staggered evenly across the dispatch window so that the client security
+ * server and storage get a steady load instead of the whole fleet as a burst. The time between staggered
+ * requests is varied randomly by the jitter, given as a fraction of the time between requests.
+ */
+public final class DispatchPacer {
+
+    // 0 when requests are sent at once
+    private final long window;
+    private final double jitter;
+    private final Random random;
+
+    private double interval;
+    private double nextDispatchTime;
+
+    DispatchPacer(long window, double jitter, Random random) {
+        this.window = window;
+        this.jitter = jitter;
+        this.random = random;
+    }
+
+    /**
+     * Create pacer configured with xroad-monitor-collector.dispatch properties
+     * @param environment
+     * @return pacer
+     * @throws IllegalArgumentException if the mode, the window or the jitter is invalid
+     */
+    public static DispatchPacer create(Environment environment) {
+        final String mode = environment.getProperty(MonitorCollectorPropertyKeys.DISPATCH_MODE,
+            MonitorCollectorConstants.DISPATCH_MODE_IMMEDIATE);
+        if (MonitorCollectorConstants.DISPATCH_MODE_IMMEDIATE.equals(mode)) {
+            return new DispatchPacer(0, 0, null);
+        }
+        if (!MonitorCollectorConstants.DISPATCH_MODE_STAGGERED.equals(mode)) {
+            throw new IllegalArgumentException("Unknown dispatch mode " + mode);
+        }
+        final long window = environment.getProperty(MonitorCollectorPropertyKeys.DISPATCH_WINDOW, Long.class,
+            MonitorCollectorConstants.DEFAULT_DISPATCH_WINDOW);
+        if (window <= 0) {
+            throw new IllegalArgumentException("Invalid dispatch window " + window);
+        }
+        final double jitter = environment.getProperty(MonitorCollectorPropertyKeys.DISPATCH_JITTER, Double.class,
+            MonitorCollectorConstants.DEFAULT_DISPATCH_JITTER);
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Invalid dispatch jitter " + jitter);
+        }
+        return new DispatchPacer(window, jitter, new Random());
+    }
+
+    /**
+     * Starts pacing requests of a collection run
+     * @param now current time in milliseconds
+     * @param requests number of requests in the run
+     */
+    public void start(long now, int requests) {
+        // the last request is sent one interval before the end of the window, leaving time for it to complete
+        interval = window > 0 && requests > 0 ? (double) window / requests : 0;
+        nextDispatchTime = now;
+    }
+
+    /**
+     * @param now current time in milliseconds
+     * @return milliseconds until the next request may be sent, 0 if it may be sent now
+     */
+    public long delay(long now) {
+        return Math.max(0, (long) Math.ceil(nextDispatchTime - now));
+    }
+
+    /**
+     * Called when a request has been sent. Requests held back by the concurrency limiter keep their place in
+     * the window, so the run catches up when the limiter allows.
+     */
+    public void dispatched() {
+        if (interval > 0) {
+            nextDispatchTime += interval * (1 + jitter * (2 * random.nextDouble() - 1));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return window > 0 ? "staggered over " + window + " ms with jitter " + jitter : "immediate";
+    }
+}
@@ -39,7 +39,8 @@ import java.util.concurrent.ExecutionException;
 @Slf4j
 public class ElasticsearchInitializerActor extends AbstractActor {
 
-  @Autowired
+  // not available when monitoring data is written to files
+  @Autowired(required = false)
   private EnvMonitorDataStorageService envMonitorDataStorageService;
 
   @Override
@@ -26,23 +26,26 @@ package fi.vrk.xroad.monitor.actor;
 
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
-import fi.vrk.xroad.monitor.elasticsearch.EnvMonitorDataStorageService;
+import akka.pattern.PatternsCS;
 import fi.vrk.xroad.monitor.extractor.MonitorDataExtractor;
+import fi.vrk.xroad.monitor.extractor.MonitorDataResult;
 import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import fi.vrk.xroad.monitor.sink.MonitorDataDocumentIds;
+import fi.vrk.xroad.monitor.sink.MonitorDataSink;
+import fi.vrk.xroad.monitor.sink.MonitorDataSink.SaveResult;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.rest.RestStatus;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
+import scala.concurrent.ExecutionContextExecutor;
 
-import java.io.IOException;
-import java.security.KeyManagementException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Actor for requesting and saving monitoring data from single security server
@@ -58,7 +61,10 @@ public class MonitorDataHandlerActor extends AbstractActor {
     MonitorDataExtractor extractor;
 
     @Autowired
-    private EnvMonitorDataStorageService envMonitorDataStorageService;
+    private MonitorDataSink monitorDataSink;
+
+    @Autowired
+    private MonitorDataDocumentIds documentIds;
 
     public MonitorDataHandlerActor(ActorRef resultCollectorActor) {
         this.resultCollectorActor = resultCollectorActor;
@@ -68,41 +74,130 @@ public class MonitorDataHandlerActor extends AbstractActor {
     public Receive createReceive() {
         return receiveBuilder()
                 .match(MonitorDataRequest.class, this::handleMonitorDataRequest)
+                .match(DefaultDataRequest.class, this::handleDefaultDataRequest)
+                .match(MonitorDataResponse.class, this::handleMonitorDataResponse)
+                .match(MonitorDataSaved.class, this::handleMonitorDataSaved)
                 .matchAny(obj -> log.error("Unhandled message: {}", obj))
                 .build();
     }
 
-    protected void handleMonitorDataRequest(MonitorDataRequest request)
-        throws ExecutionException, InterruptedException, CertificateException, UnrecoverableKeyException,
-        NoSuchAlgorithmException, KeyStoreException, KeyManagementException, IOException {
-        // query data from security server
-        String json = extractor.handleMonitorDataRequestAndResponse(request.getSecurityServerInfo());
-        boolean shouldSaveDefaultData = false;
-        String errorString = "";
-        if (json != null) {
-            try {
-                // save security server's monitoring data
-                envMonitorDataStorageService.save(json);
-                resultCollectorActor.tell(ResultCollectorActor.Result.createSuccess(
-                    request.getSecurityServerInfo()), getSelf());
-            } catch (Exception ex) {
-                log.error("Exception saving monitoring data ", ex);
-                log.error("Data: {}", json);
-                shouldSaveDefaultData = true;
-                errorString = ex.toString();
-            }
+    protected void handleMonitorDataRequest(MonitorDataRequest request) {
+        final SecurityServerInfo info = request.getSecurityServerInfo();
+        final ActorRef requester = getSender();
+        // the same id is used for the monitoring data and for the default data saved in its place
+        final String documentId = documentIds.create(info, request.getRunTimestamp());
+        final long startTime = System.nanoTime();
+        if (extractor.isAsyncEnabled()) {
+            // query data without blocking, the response is piped back to this actor
+            ExecutionContextExecutor dispatcher = getContext().dispatcher();
+            CompletableFuture<MonitorDataResponse> response = extractor
+                .handleMonitorDataRequestAndResponseAsync(info, dispatcher, request.getDeadline())
+                .thenApply(result -> new MonitorDataResponse(request, result, requester, documentId,
+                    System.nanoTime() - startTime));
+            PatternsCS.pipe(response, dispatcher).to(getSelf());
         } else {
-            shouldSaveDefaultData = true;
-            errorString = extractor.getLastErrorDescription();
+            // query data from security server
+            MonitorDataResult result = extractor.handleMonitorDataRequestAndResponse(info, request.getDeadline());
+            handleMonitorDataResponse(new MonitorDataResponse(request, result, requester, documentId,
+                System.nanoTime() - startTime));
         }
-        if (shouldSaveDefaultData) {
-            // monitoring data was not received from security server or save operation failed
-            // store only default data
-            log.info("save default data for security server {}", request.getSecurityServerInfo());
-            envMonitorDataStorageService.save(extractor.getDefaultJSON(request.getSecurityServerInfo()));
-            resultCollectorActor.tell(ResultCollectorActor.Result.createError(
-                request.getSecurityServerInfo(), errorString), getSelf());
+    }
+
+    /**
+     * Saves the default data of a security server without requesting its monitoring data. Only the storage
+     * write is reported to the requester, as no request slot was taken.
+     */
+    private void handleDefaultDataRequest(DefaultDataRequest request) {
+        final SecurityServerInfo info = request.getSecurityServerInfo();
+        final String documentId = documentIds.create(info, request.getRunTimestamp());
+        saveDefaultData(MonitorDataResult.createError(info, request.getErrorDescription(), null, 0, 0), getSender(),
+            request.getRunTimestamp(), documentId, request.getErrorDescription(), false);
+    }
+
+    private void handleMonitorDataResponse(MonitorDataResponse response) {
+        final MonitorDataRequest request = response.getRequest();
+        final MonitorDataResult result = response.getResult();
+        final SecurityServerInfo info = result.getSecurityServerInfo();
+        final long retryDelay = extractor.getRetryPolicy().getDelay(result, request.getAttempt());
+        if (retryDelay >= 0 && System.currentTimeMillis() + retryDelay < request.getDeadline()) {
+            // the requester schedules the next attempt, nothing is saved for this one
+            log.warn("Attempt {} requesting monitoring data failed, retrying in {} ms {}", request.getAttempt(),
+                retryDelay, result);
+            response.getRequester().tell(new MonitorDataRetry(info, response.getRunTimestamp(),
+                request.getAttempt() + 1, retryDelay), getSelf());
+            return;
         }
+        if (result.isSuccess()) {
+            log.debug("Received monitoring data {}", result);
+            // save security server's monitoring data
+            save(monitorDataSink.save(response.getDocumentId(), result.getDocument()), result,
+                response.getRequester(), response.getRunTimestamp(), response.getDocumentId(), false, null, false);
+        } else {
+            if (result.getCause() != null) {
+                log.error("Exception requesting monitoring data ", result.getCause());
+            } else {
+                log.error("Fault requesting monitoring data {}", result);
+            }
+            saveDefaultData(result, response.getRequester(), response.getRunTimestamp(), response.getDocumentId(),
+                result.getErrorDescription(), false);
+        }
+        // release the request slot, the storage write is reported separately when it completes
+        response.getRequester().tell(new MonitorDataRequestCompleted(info, response.getRunTimestamp(),
+            response.getLatencyNanos(), result.isSuccess(), result.isOverload(), result.isSkipped()), getSelf());
+    }
+
+    private void handleMonitorDataSaved(MonitorDataSaved saved) {
+        final SecurityServerInfo info = saved.getResult().getSecurityServerInfo();
+        final Throwable failure = saved.getFailure();
+        if (failure != null && !saved.isDefaultData()) {
+            log.error("Exception saving monitoring data ", failure);
+            log.error("Data: {}", saved.getResult().getJson());
+            // save operation failed, store only default data. A rejection is reported even if the default data
+            // is accepted.
+            saveDefaultData(saved.getResult(), saved.getRequester(), saved.getRunTimestamp(), saved.getDocumentId(),
+                failure.toString(), saved.isRejected());
+            return;
+        }
+        if (failure != null) {
+            log.error("Exception saving default data ", failure);
+        }
+        resultCollectorActor.tell(saved.isDefaultData()
+            ? ResultCollectorActor.Result.createError(info, saved.getErrorDescription())
+            : ResultCollectorActor.Result.createSuccess(info), getSelf());
+        // storage rejects writes when it is overloaded, the requester then lowers its bound of outstanding writes
+        saved.getRequester().tell(new MonitorDataSaveCompleted(info, saved.getRunTimestamp(), saved.isRejected()),
+            getSelf());
+    }
+
+    private void saveDefaultData(MonitorDataResult result, ActorRef requester, long runTimestamp, String documentId,
+                                 String errorDescription, boolean rejected) {
+        // monitoring data was not received from security server or save operation failed
+        log.info("save default data for security server {}", result.getSecurityServerInfo());
+        save(monitorDataSink.save(documentId, extractor.getDefaultJSON(result.getSecurityServerInfo())), result,
+            requester, runTimestamp, documentId, true, errorDescription, rejected);
+    }
+
+    /**
+     * Pipes the outcome of the storage write back to this actor
+     * @param rejected true if an earlier write of the same document was rejected by storage
+     */
+    private void save(CompletableFuture<SaveResult> write, MonitorDataResult result, ActorRef requester,
+                      long runTimestamp, String documentId, boolean defaultData, String errorDescription,
+                      boolean rejected) {
+        CompletableFuture<MonitorDataSaved> saved = write.handle((saveResult, failure) -> {
+            final Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+            return new MonitorDataSaved(result, requester, runTimestamp, documentId, defaultData, errorDescription,
+                cause, rejected || isRejected(saveResult, cause));
+        });
+        PatternsCS.pipe(saved, getContext().dispatcher()).to(getSelf());
+    }
+
+    /**
+     * Storage rejects writes when it is overloaded, also when the rejected document is spooled instead
+     */
+    private static boolean isRejected(SaveResult saveResult, Throwable failure) {
+        return saveResult == SaveResult.SPOOLED_AFTER_REJECTION
+            || failure != null && ExceptionsHelper.status(failure) == RestStatus.TOO_MANY_REQUESTS;
     }
 
     /**
@@ -112,6 +207,112 @@ public class MonitorDataHandlerActor extends AbstractActor {
     @Getter
     public static class MonitorDataRequest {
         private final SecurityServerInfo securityServerInfo;
+        private final long runTimestamp;
+        // deadline of the collection run in milliseconds
+        private final long deadline;
+        // attempts are numbered from 1, a failed attempt may be retried
+        private final int attempt;
+
+        public MonitorDataRequest(SecurityServerInfo securityServerInfo, long runTimestamp, long deadline) {
+            this(securityServerInfo, runTimestamp, deadline, 1);
+        }
 
+        public MonitorDataRequest(SecurityServerInfo securityServerInfo, long runTimestamp) {
+            this(securityServerInfo, runTimestamp, Long.MAX_VALUE);
+        }
+
+        public MonitorDataRequest(SecurityServerInfo securityServerInfo) {
+            this(securityServerInfo, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Request for saving the default data of single security server without requesting its monitoring data
+     */
+    @RequiredArgsConstructor
+    @Getter
+    public static class DefaultDataRequest {
+        private final SecurityServerInfo securityServerInfo;
+        private final long runTimestamp;
+        private final String errorDescription;
+    }
+
+    /**
+     * Sent to the requester when a monitoring data request has been processed
+     */
+    @RequiredArgsConstructor
+    @Getter
+    @ToString
+    public static class MonitorDataRequestCompleted {
+        private final SecurityServerInfo securityServerInfo;
+        private final long runTimestamp;
+        private final long latencyNanos;
+        private final boolean success;
+        // failed because the client security server or the connection pool could not keep up
+        private final boolean overload;
+        // not sent because the deadline of the run had passed, tells nothing of the security server
+        private final boolean skipped;
+    }
+
+    /**
+     * Sent to the requester instead of {@link MonitorDataRequestCompleted} when a failed request should be
+     * attempted again after the delay. Only the last attempt is reported as completed, and only the last
+     * attempt writes to storage.
+     */
+    @RequiredArgsConstructor
+    @Getter
+    @ToString
+    public static class MonitorDataRetry {
+        private final SecurityServerInfo securityServerInfo;
+        private final long runTimestamp;
+        private final int attempt;
+        private final long delay;
+    }
+
+    /**
+     * Sent to the requester when the monitoring data, or the default data in its place, has been written
+     * to storage or the write has failed
+     */
+    @RequiredArgsConstructor
+    @Getter
+    @ToString
+    public static class MonitorDataSaveCompleted {
+        private final SecurityServerInfo securityServerInfo;
+        private final long runTimestamp;
+        private final boolean rejected;
+    }
+
+    /**
+     * Outcome of a storage write
+     */
+    @RequiredArgsConstructor
+    @Getter
+    private static final class MonitorDataSaved {
+        private final MonitorDataResult result;
+        private final ActorRef requester;
+        private final long runTimestamp;
+        private final String documentId;
+        private final boolean defaultData;
+        private final String errorDescription;
+        private final Throwable failure;
+        // storage rejected this or an earlier write of the document because it is overloaded
+        private final boolean rejected;
+    }
+
+    /**
+     * Monitoring data result for single security server and the actor waiting for its completion
+     */
+    @RequiredArgsConstructor
+    @Getter
+    private static final class MonitorDataResponse {
+        private final MonitorDataRequest request;
+        private final MonitorDataResult result;
+        private final ActorRef requester;
+        private final String documentId;
+        private final long latencyNanos;
+
+        private long getRunTimestamp() {
+            return request.getRunTimestamp();
+        }
     }
 }
@@ -25,29 +25,47 @@ package fi.vrk.xroad.monitor.actor;
 
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.OneForOneStrategy;
 import akka.actor.SupervisorStrategy;
 import akka.japi.pf.DeciderBuilder;
 import akka.pattern.Patterns;
+import akka.pattern.PatternsCS;
 import akka.routing.SmallestMailboxPool;
 import akka.util.Timeout;
 import fi.vrk.xroad.monitor.extensions.SpringExtension;
+import fi.vrk.xroad.monitor.extractor.MonitorDataConnectionManager;
+import fi.vrk.xroad.monitor.history.CircuitBreaker;
+import fi.vrk.xroad.monitor.history.LatencyHistory;
+import fi.vrk.xroad.monitor.limiter.ConcurrencyLimiter;
+import fi.vrk.xroad.monitor.limiter.ConcurrencyLimiters;
 import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import fi.vrk.xroad.monitor.parser.SharedParamsWatcher;
+import fi.vrk.xroad.monitor.sink.MonitorDataSink;
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 import scala.concurrent.Await;
 import scala.concurrent.duration.Duration;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import static akka.actor.SupervisorStrategy.resume;
-import static fi.vrk.xroad.monitor.util.MonitorCollectorConstants.SUPERVISOR_MONITOR_DATA_ACTOR_POOL_SIZE;
 
 /**
  * Supervisor for actors
@@ -62,11 +80,62 @@ public class Supervisor extends AbstractActor {
     private ActorRef monitorDataRequestPoolRouter;
     private ActorRef elasticsearchInitializerActor;
 
+    private ConcurrencyLimiter limiter;
+    private DispatchPacer pacer;
+    // pending requests are held back by the pacer until the dispatch is scheduled
+    private Cancellable scheduledDispatch;
+    private final Deque<SecurityServerInfo> pendingRequests = new ArrayDeque<>();
+    // next attempt of pending requests that are retried
+    private final Map<SecurityServerInfo, Integer> retryAttempts = new HashMap<>();
+    // retries waiting for their delay, they hold neither a request slot nor a write
+    private int retriesScheduled;
+    private int requestsInFlight;
+    private int maxOutstandingWrites;
+    // bound of outstanding writes, halved when storage rejects a write and raised back by each accepted write
+    private int writeLimit;
+    private int writesOutstanding;
+    private int writesRejected;
+    // start time of the current collection run, document ids may be derived from it
+    private long runTimestamp;
+    // requests are not sent after the deadline of the run, 0 when runs have no deadline
+    private long runDeadline;
+    private long runDeadlineGrace;
+    private Cancellable runDeadlineGuard;
+    // a new run is not started before the previous one has completed
+    private boolean collecting;
+
+    // daemon mode schedule, null when collecting only once
+    private CollectionSchedule schedule;
+    private long nextRunTime;
+    private Cancellable nextRun;
+    // security servers in global configuration in daemon mode, null until parsed
+    private Set<SecurityServerInfo> securityServerInfos;
+    // security servers added to global configuration during a run, collected when the run completes
+    private final Set<SecurityServerInfo> addedSecurityServerInfos = new HashSet<>();
+
     private static final int SUPERVISOR_RETRIES = 3;
 
     @Autowired
     SpringExtension ext;
 
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private MonitorDataConnectionManager connectionManager;
+
+    @Autowired
+    private MonitorDataSink monitorDataSink;
+
+    @Autowired
+    private SharedParamsWatcher sharedParamsWatcher;
+
+    @Autowired
+    private LatencyHistory latencyHistory;
+
+    @Autowired
+    private CircuitBreaker circuitBreaker;
+
     /**
      * Constructor
      */
@@ -97,9 +166,21 @@ public class Supervisor extends AbstractActor {
     @Override
     public void preStart() throws Exception {
         log.debug("preStart");
+        limiter = ConcurrencyLimiters.create(environment);
+        log.info("Using concurrency limiter {} for X-Road instance {}", limiter,
+                environment.getProperty(MonitorCollectorPropertyKeys.INSTANCE));
+        pacer = DispatchPacer.create(environment);
+        log.info("Dispatching requests {}", pacer);
+        runDeadline = environment.getProperty(MonitorCollectorPropertyKeys.RUN_DEADLINE, Long.class,
+                MonitorCollectorConstants.DEFAULT_RUN_DEADLINE);
+        runDeadlineGrace = environment.getProperty(MonitorCollectorPropertyKeys.RUN_DEADLINE_GRACE, Long.class,
+                MonitorCollectorConstants.DEFAULT_RUN_DEADLINE_GRACE);
+        maxOutstandingWrites = environment.getProperty(MonitorCollectorPropertyKeys.ES_MAX_OUTSTANDING_WRITES,
+                Integer.class, MonitorCollectorConstants.DEFAULT_ES_MAX_OUTSTANDING_WRITES);
         resultCollectorActor = getContext().actorOf(ext.props("resultCollectorActor"));
+        // the pool must be large enough for the limiter to reach its maximum with blocking requests
         monitorDataRequestPoolRouter = getContext()
-                .actorOf(new SmallestMailboxPool(SUPERVISOR_MONITOR_DATA_ACTOR_POOL_SIZE)
+                .actorOf(new SmallestMailboxPool(limiter.getMaxLimit())
                         .props(ext.props("monitorDataHandlerActor", resultCollectorActor)));
         elasticsearchInitializerActor = getContext().actorOf(ext.props("elasticsearchInitializerActor"));
         super.preStart();
@@ -110,11 +191,108 @@ public class Supervisor extends AbstractActor {
         log.debug("createReceive");
         return receiveBuilder()
                 .match(StartCollectingMonitorDataCommand.class, this::handleMonitorDataRequest)
+                .match(ScheduleCollectingMonitorDataCommand.class, this::handleSchedule)
+                .match(ScheduledRun.class, this::handleScheduledRun)
+                .match(SecurityServersChanged.class, this::handleSecurityServersChanged)
+                .match(ScheduledDispatch.class, this::handleScheduledDispatch)
+                .match(RunDeadlineExceeded.class, this::handleRunDeadlineExceeded)
+                .match(MonitorDataHandlerActor.MonitorDataRequestCompleted.class, this::handleRequestCompleted)
+                .match(MonitorDataHandlerActor.MonitorDataRetry.class, this::handleRetry)
+                .match(RetryDue.class, this::handleRetryDue)
+                .match(MonitorDataHandlerActor.MonitorDataSaveCompleted.class, this::handleSaveCompleted)
+                .match(FlushCompleted.class, this::handleFlushCompleted)
                 .matchAny(obj -> log.error("Unhandled message: {}", obj))
                 .build();
     }
 
+    @Override
+    public void postStop() throws Exception {
+        if (nextRun != null) {
+            nextRun.cancel();
+        }
+        if (scheduledDispatch != null) {
+            scheduledDispatch.cancel();
+        }
+        if (runDeadlineGuard != null) {
+            runDeadlineGuard.cancel();
+        }
+        super.postStop();
+    }
+
+    private void handleSchedule(ScheduleCollectingMonitorDataCommand command) throws IOException {
+        schedule = command.getSchedule();
+        nextRunTime = schedule.first(System.currentTimeMillis());
+        log.info("Collecting monitoring data {}", schedule);
+        // the watcher parses global configuration at once, so the security servers are known before the first run
+        final ActorRef self = getSelf();
+        sharedParamsWatcher.start(infos -> self.tell(new SecurityServersChanged(infos), ActorRef.noSender()));
+        scheduleNextRun();
+    }
+
+    private void handleScheduledRun(ScheduledRun run) {
+        // runs missed while a long run was in progress are skipped
+        nextRunTime = schedule.next(Math.max(nextRunTime, System.currentTimeMillis()));
+        scheduleNextRun();
+        if (collecting) {
+            log.warn("Previous collection run has not completed, skipping scheduled run");
+            return;
+        }
+        if (securityServerInfos == null) {
+            log.error("Global configuration has not been parsed, skipping scheduled run");
+            return;
+        }
+        // servers added since the previous run are collected in this run
+        addedSecurityServerInfos.clear();
+        handleMonitorDataRequest(new StartCollectingMonitorDataCommand(securityServerInfos));
+    }
+
+    /**
+     * Updates the security servers of the scheduled runs. Removed servers are dropped from the current run,
+     * added servers are collected at once or when the current run completes.
+     */
+    private void handleSecurityServersChanged(SecurityServersChanged changed) {
+        final Set<SecurityServerInfo> infos = changed.getSecurityServerInfos();
+        if (securityServerInfos == null) {
+            log.info("{} security servers in global configuration", infos.size());
+            securityServerInfos = infos;
+            return;
+        }
+        final Set<SecurityServerInfo> added = new HashSet<>(infos);
+        added.removeAll(securityServerInfos);
+        final Set<SecurityServerInfo> removed = new HashSet<>(securityServerInfos);
+        removed.removeAll(infos);
+        securityServerInfos = infos;
+        log.info("Global configuration changed, {} security servers added and {} removed", added.size(),
+                removed.size());
+        log.debug("Added {}, removed {}", added, removed);
+        pendingRequests.removeAll(removed);
+        addedSecurityServerInfos.removeAll(removed);
+        addedSecurityServerInfos.addAll(added);
+        collectAddedSecurityServers();
+    }
+
+    private void collectAddedSecurityServers() {
+        if (!collecting && !addedSecurityServerInfos.isEmpty()) {
+            log.info("Collect monitoring data from {} added security servers", addedSecurityServerInfos.size());
+            final Set<SecurityServerInfo> added = new HashSet<>(addedSecurityServerInfos);
+            addedSecurityServerInfos.clear();
+            handleMonitorDataRequest(new StartCollectingMonitorDataCommand(added));
+        }
+    }
+
+    private void scheduleNextRun() {
+        final long delay = Math.max(0, nextRunTime - System.currentTimeMillis());
+        log.info("Next collection run in {} seconds", TimeUnit.MILLISECONDS.toSeconds(delay));
+        nextRun = getContext().getSystem().scheduler().scheduleOnce(Duration.create(delay, TimeUnit.MILLISECONDS),
+                getSelf(), new ScheduledRun(), getContext().dispatcher(), ActorRef.noSender());
+    }
+
     private void handleMonitorDataRequest(StartCollectingMonitorDataCommand request) {
+        if (collecting) {
+            log.warn("Previous collection run has not completed, ignoring {}", request);
+            return;
+        }
+        collecting = true;
         Timeout timeout = new Timeout(1, TimeUnit.MINUTES);
         try {
             // init result collector with expected results
@@ -132,12 +310,244 @@ public class Supervisor extends AbstractActor {
             log.error("Failed to initialize the ElasticsearchInitializerActor, {}", e);
         }
 
-        request.getSecurityServerInfos().stream()
-            .forEach(info -> {
-                log.info("Process SecurityServerInfo {}", info);
-                monitorDataRequestPoolRouter.tell(new MonitorDataHandlerActor.MonitorDataRequest(info),
+        connectionManager.prewarm();
+        // every run has a different timestamp, so that completions of an abandoned run can be told apart
+        runTimestamp = Math.max(System.currentTimeMillis(), runTimestamp + 1);
+        pendingRequests.clear();
+        retryAttempts.clear();
+        retriesScheduled = 0;
+        requestsInFlight = 0;
+        writesOutstanding = 0;
+        writesRejected = 0;
+        writeLimit = maxOutstandingWrites;
+        // slow and unreliable security servers first, so that they overlap with the fast ones
+        pendingRequests.addAll(latencyHistory.order(request.getSecurityServerInfos()));
+        pacer.start(runTimestamp, pendingRequests.size());
+        if (pendingRequests.isEmpty()) {
+            log.info("No security servers to collect monitoring data from");
+            collecting = false;
+            collectAddedSecurityServers();
+            return;
+        }
+        if (runDeadline > 0) {
+            // requests are bounded by the deadline, the guard ends the run if their completions never arrive
+            runDeadlineGuard = getContext().getSystem().scheduler().scheduleOnce(
+                    Duration.create(runDeadline + runDeadlineGrace, TimeUnit.MILLISECONDS), getSelf(),
+                    new RunDeadlineExceeded(runTimestamp), getContext().dispatcher(), ActorRef.noSender());
+        }
+        dispatchPendingRequests();
+    }
+
+    /**
+     * Ends a run that has not completed by its deadline and the grace period, so that a lost completion
+     * does not stop all later runs
+     */
+    private void handleRunDeadlineExceeded(RunDeadlineExceeded exceeded) {
+        if (!collecting || exceeded.getRunTimestamp() != runTimestamp) {
+            return;
+        }
+        log.error("Collection run did not complete by its deadline, abandoning {} pending requests, {} requests "
+                + "in flight and {} writes outstanding", pendingRequests.size(), requestsInFlight, writesOutstanding);
+        pendingRequests.clear();
+        retryAttempts.clear();
+        retriesScheduled = 0;
+        requestsInFlight = 0;
+        writesOutstanding = 0;
+        completeRun();
+    }
+
+    private void handleRequestCompleted(MonitorDataHandlerActor.MonitorDataRequestCompleted completed) {
+        if (!isCurrentRun(completed.getRunTimestamp())) {
+            log.warn("Ignoring request completed after its run was abandoned {}", completed);
+            return;
+        }
+        requestsInFlight--;
+        if (!completed.isSkipped()) {
+            limiter.onSample(completed.getLatencyNanos(), completed.isSuccess(), completed.isOverload());
+            latencyHistory.record(completed.getSecurityServerInfo(), completed.getLatencyNanos(),
+                    completed.isSuccess());
+        }
+        log.debug("Request completed {}, concurrency limit {}", completed, limiter.getLimit());
+        dispatchPendingRequests();
+        if (requestsInFlight == 0 && pendingRequests.isEmpty() && retriesScheduled == 0) {
+            log.info("All requests completed, concurrency limiter {}, {} writes outstanding", limiter,
+                    writesOutstanding);
+            log.info("Connection pool {}", connectionManager.getPoolStats());
+        }
+    }
+
+    private void handleSaveCompleted(MonitorDataHandlerActor.MonitorDataSaveCompleted completed) {
+        if (!isCurrentRun(completed.getRunTimestamp())) {
+            log.warn("Ignoring save completed after its run was abandoned {}", completed);
+            return;
+        }
+        writesOutstanding--;
+        if (completed.isRejected()) {
+            writesRejected++;
+            writeLimit = Math.max(1, writeLimit / 2);
+            log.warn("Storage rejected monitoring data {}, outstanding writes limited to {}", completed, writeLimit);
+        } else if (writeLimit < maxOutstandingWrites) {
+            writeLimit++;
+        }
+        dispatchPendingRequests();
+        completeRunIfSaved();
+    }
+
+    private void completeRunIfSaved() {
+        if (writesOutstanding == 0 && requestsInFlight == 0 && pendingRequests.isEmpty() && retriesScheduled == 0) {
+            log.info("All monitoring data saved, {} writes rejected by storage", writesRejected);
+            // the run completes when the sink has stored the documents it still holds
+            flushMonitorData();
+        }
+    }
+
+    /**
+     * Schedules a failed request to be attempted again. The request releases its slot and will not be written,
+     * so it waits for the delay without holding back other requests. The failed attempt is not sampled by the
+     * limiter or the latency history, only the last attempt of each request is.
+     */
+    private void handleRetry(MonitorDataHandlerActor.MonitorDataRetry retry) {
+        if (!isCurrentRun(retry.getRunTimestamp())) {
+            log.warn("Ignoring retry after its run was abandoned {}", retry);
+            return;
+        }
+        requestsInFlight--;
+        writesOutstanding--;
+        retriesScheduled++;
+        getContext().getSystem().scheduler().scheduleOnce(Duration.create(retry.getDelay(), TimeUnit.MILLISECONDS),
+                getSelf(), new RetryDue(retry.getSecurityServerInfo(), retry.getRunTimestamp(), retry.getAttempt()),
+                getContext().dispatcher(), ActorRef.noSender());
+        dispatchPendingRequests();
+    }
+
+    private void handleRetryDue(RetryDue due) {
+        if (!isCurrentRun(due.getRunTimestamp())) {
+            return;
+        }
+        retriesScheduled--;
+        if (securityServerInfos != null && !securityServerInfos.contains(due.getSecurityServerInfo())) {
+            log.info("Security server removed from global configuration, not retrying {}", due.getSecurityServerInfo());
+            completeRunIfSaved();
+            return;
+        }
+        // retries are sent before the requests not attempted yet
+        retryAttempts.put(due.getSecurityServerInfo(), due.getAttempt());
+        pendingRequests.addFirst(due.getSecurityServerInfo());
+        dispatchPendingRequests();
+    }
+
+    /**
+     * Messages of a run abandoned at its deadline may still arrive, they must not change the counters of
+     * a later run
+     */
+    private boolean isCurrentRun(long timestamp) {
+        return collecting && timestamp == runTimestamp;
+    }
+
+    private void completeRun() {
+        log.info("Collection run took {} seconds",
+                TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - runTimestamp));
+        if (runDeadlineGuard != null) {
+            runDeadlineGuard.cancel();
+            runDeadlineGuard = null;
+        }
+        latencyHistory.save();
+        collecting = false;
+        collectAddedSecurityServers();
+    }
+
+    /**
+     * Flushes the sink without blocking, {@link FlushCompleted} is sent to this actor when the written documents
+     * have been stored
+     */
+    private void flushMonitorData() {
+        final long timestamp = runTimestamp;
+        final CompletableFuture<FlushCompleted> flushed = monitorDataSink.flush().handle((stored, failure) -> {
+            if (failure != null) {
+                log.error("Failed to send monitoring data to storage", failure);
+            }
+            return new FlushCompleted(timestamp, failure == null && stored);
+        });
+        PatternsCS.pipe(flushed, getContext().dispatcher()).to(getSelf());
+    }
+
+    private void handleFlushCompleted(FlushCompleted flushed) {
+        if (!isCurrentRun(flushed.getRunTimestamp())) {
+            log.warn("Ignoring flush completed after its run was abandoned");
+            return;
+        }
+        if (flushed.isStored()) {
+            log.info("All monitoring data sent to storage");
+        } else {
+            log.error("Timed out sending monitoring data to storage");
+        }
+        completeRun();
+    }
+
+    private void handleScheduledDispatch(ScheduledDispatch dispatch) {
+        scheduledDispatch = null;
+        dispatchPendingRequests();
+    }
+
+    /**
+     * Sends pending requests to the pool router while the concurrency limit and the pacer allow. Every
+     * request ends in a storage write, so requests are also held back while too many writes are waiting
+     * for storage, and the bound is lowered while storage rejects writes. Security servers with an open
+     * circuit, and all security servers left after the deadline of the run, get their default data at once,
+     * without a request.
+     */
+    private void dispatchPendingRequests() {
+        while (writesOutstanding < writeLimit && !pendingRequests.isEmpty()) {
+            final long now = System.currentTimeMillis();
+            if (runDeadline > 0 && now >= runTimestamp + runDeadline) {
+                SecurityServerInfo info = pendingRequests.poll();
+                log.debug("Run deadline exceeded, save default data for SecurityServerInfo {}", info);
+                saveDefaultData(info, "Run deadline exceeded");
+                continue;
+            }
+            if (circuitBreaker.isOpen(pendingRequests.peek(), now)) {
+                SecurityServerInfo info = pendingRequests.poll();
+                log.info("Circuit open, save default data for SecurityServerInfo {}", info);
+                saveDefaultData(info, "Circuit open after repeated failures");
+                continue;
+            }
+            if (requestsInFlight >= limiter.getLimit()) {
+                return;
+            }
+            final long delay = pacer.delay(now);
+            if (delay > 0) {
+                scheduleDispatch(delay);
+                return;
+            }
+            SecurityServerInfo info = pendingRequests.poll();
+            final Integer attempt = retryAttempts.remove(info);
+            log.info("Process SecurityServerInfo {}", info);
+            requestsInFlight++;
+            writesOutstanding++;
+            pacer.dispatched();
+            monitorDataRequestPoolRouter.tell(new MonitorDataHandlerActor.MonitorDataRequest(info, runTimestamp,
+                    runDeadline > 0 ? runTimestamp + runDeadline : Long.MAX_VALUE, attempt != null ? attempt : 1),
                     getSelf());
-            });
+        }
+    }
+
+    /**
+     * Sends a security server to be saved with default data. The write is outstanding until its completion
+     * arrives, but no request slot is taken and nothing is sampled by the limiter or the latency history.
+     */
+    private void saveDefaultData(SecurityServerInfo info, String errorDescription) {
+        retryAttempts.remove(info);
+        writesOutstanding++;
+        monitorDataRequestPoolRouter.tell(new MonitorDataHandlerActor.DefaultDataRequest(info, runTimestamp,
+                errorDescription), getSelf());
+    }
+
+    private void scheduleDispatch(long delay) {
+        if (scheduledDispatch == null) {
+            scheduledDispatch = getContext().getSystem().scheduler().scheduleOnce(
+                    Duration.create(delay, TimeUnit.MILLISECONDS), getSelf(), new ScheduledDispatch(),
+                    getContext().dispatcher(), ActorRef.noSender());
+        }
     }
 
     /**
@@ -149,6 +559,67 @@ public class Supervisor extends AbstractActor {
         private final Set<SecurityServerInfo> securityServerInfos;
     }
 
+    /**
+     * Request for collecting monitoring data on schedule until stopped, global configuration is parsed
+     * again before each run
+     */
+    @RequiredArgsConstructor
+    @Getter
+    public static class ScheduleCollectingMonitorDataCommand {
+        private final CollectionSchedule schedule;
+    }
+
+    /**
+     * Security servers in global configuration after it has changed
+     */
+    @RequiredArgsConstructor
+    @Getter
+    private static final class SecurityServersChanged {
+        private final Set<SecurityServerInfo> securityServerInfos;
+    }
+
+    /**
+     * Time for a scheduled run
+     */
+    private static final class ScheduledRun {
+    }
+
+    /**
+     * Time for sending the next paced request
+     */
+    private static final class ScheduledDispatch {
+    }
+
+    /**
+     * Time for attempting a failed request again
+     */
+    @RequiredArgsConstructor
+    @Getter
+    private static final class RetryDue {
+        private final SecurityServerInfo securityServerInfo;
+        private final long runTimestamp;
+        private final int attempt;
+    }
+
+    /**
+     * Deadline and grace period of a run have passed
+     */
+    @RequiredArgsConstructor
+    @Getter
+    private static final class RunDeadlineExceeded {
+        private final long runTimestamp;
+    }
+
+    /**
+     * Sink has stored the documents of a run, or failed to store them in time
+     */
+    @RequiredArgsConstructor
+    @Getter
+    private static final class FlushCompleted {
+        private final long runTimestamp;
+        private final boolean stored;
+    }
+
     //  Default Supervisor Strategy
     //  Escalate is used if the defined strategy doesn't cover the exception that was thrown.
     //
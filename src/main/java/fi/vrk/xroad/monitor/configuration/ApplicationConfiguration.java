@@ -25,16 +25,13 @@ package fi.vrk.xroad.monitor.configuration;
 import akka.actor.ActorSystem;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
-import fi.vrk.xroad.monitor.elasticsearch.EnvMonitorDataStorageDao;
-import fi.vrk.xroad.monitor.elasticsearch.EnvMonitorDataStorageDaoImpl;
-import fi.vrk.xroad.monitor.elasticsearch.EnvMonitorDataStorageService;
-import fi.vrk.xroad.monitor.elasticsearch.EnvMonitorDataStorageServiceImpl;
 import fi.vrk.xroad.monitor.extensions.SpringExtension;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
 import org.springframework.context.annotation.Lazy;
 
 /**
@@ -43,7 +40,9 @@ import org.springframework.context.annotation.Lazy;
 @Configuration
 @Lazy
 @ComponentScan(basePackages = {
-        "fi.vrk.xroad.monitor"})
+        "fi.vrk.xroad.monitor"},
+        excludeFilters = @ComponentScan.Filter(type = FilterType.CUSTOM,
+                classes = CollectorInstances.InstanceComponentFilter.class))
 public class ApplicationConfiguration {
 
     // The application context is needed to initialize the Akka Spring
@@ -51,7 +50,8 @@ public class ApplicationConfiguration {
     @Autowired
     private ApplicationContext applicationContext;
 
-    @Autowired
+    // each instance has its own extension when instances are configured
+    @Autowired(required = false)
     private SpringExtension springExtension;
 
     /**
@@ -70,14 +70,4 @@ public class ApplicationConfiguration {
     public Config akkaConfiguration() {
         return ConfigFactory.load();
     }
-
-    @Bean
-    public EnvMonitorDataStorageDao envMonitorDataStorageDao() {
-        return new EnvMonitorDataStorageDaoImpl();
-    }
-
-    @Bean
-    public EnvMonitorDataStorageService envMonitorDataStorageService() {
-        return new EnvMonitorDataStorageServiceImpl();
-    }
 }
@@ -0,0 +1,193 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.configuration;
+
+import fi.vrk.xroad.monitor.actor.ElasticsearchInitializerActor;
+import fi.vrk.xroad.monitor.actor.MonitorDataHandlerActor;
+import fi.vrk.xroad.monitor.actor.ResultCollectorActor;
+import fi.vrk.xroad.monitor.actor.Supervisor;
+import fi.vrk.xroad.monitor.extensions.SpringExtension;
+import fi.vrk.xroad.monitor.extractor.MonitorDataConnectionManager;
+import fi.vrk.xroad.monitor.extractor.MonitorDataExtractor;
+import fi.vrk.xroad.monitor.extractor.MonitorDataRequestBuilder;
+import fi.vrk.xroad.monitor.history.CircuitBreaker;
+import fi.vrk.xroad.monitor.history.LatencyHistory;
+import fi.vrk.xroad.monitor.parser.SharedParamsParser;
+import fi.vrk.xroad.monitor.parser.SharedParamsWatcher;
+import fi.vrk.xroad.monitor.sink.MonitorDataDocumentIds;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.core.type.filter.TypeFilter;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * X-Road instances collected by one process. Each instance gets a child application context of its own
+ * with the components that depend on the instance: global configuration, client identity and client URL,
+ * connection pool and the supervisor with its concurrency limiter. Storage is shared by all instances.
+ * <p>
+ * Properties of an instance are read with the prefix {@code xroad-monitor-collector-instance.<name>.} and
+ * fall back to the properties without the prefix.
+ */
+@Slf4j
+@Component
+public class CollectorInstances {
+
+    // components created separately for each instance, everything else comes from the parent context
+    private static final Class<?>[] INSTANCE_COMPONENTS = {
+        SpringExtension.class,
+        SharedParamsParser.class,
+        SharedParamsWatcher.class,
+        MonitorDataConnectionManager.class,
+        MonitorDataRequestBuilder.class,
+        MonitorDataExtractor.class,
+        MonitorDataDocumentIds.class,
+        LatencyHistory.class,
+        CircuitBreaker.class,
+        Supervisor.class,
+        ResultCollectorActor.class,
+        MonitorDataHandlerActor.class,
+        ElasticsearchInitializerActor.class,
+    };
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    private final List<AnnotationConfigApplicationContext> contexts = new ArrayList<>();
+
+    /**
+     * @return names of the configured instances, empty when the collector uses only the properties without
+     * an instance prefix
+     */
+    public List<String> getNames() {
+        return getNames(environment);
+    }
+
+    private static List<String> getNames(Environment environment) {
+        final String names = environment.getProperty(MonitorCollectorPropertyKeys.INSTANCES, "");
+        final List<String> result = Arrays.stream(names.split(","))
+            .map(String::trim)
+            .filter(name -> !name.isEmpty())
+            .distinct()
+            .collect(Collectors.toList());
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Creates the application contexts of the configured instances
+     * @return application context of each instance by instance name
+     */
+    public synchronized Map<String, ApplicationContext> createContexts() {
+        final Map<String, ApplicationContext> result = new LinkedHashMap<>();
+        for (String name : getNames()) {
+            result.put(name, createContext(name, INSTANCE_COMPONENTS));
+        }
+        return result;
+    }
+
+    /**
+     * Creates the application context of an instance with the given components
+     */
+    synchronized ApplicationContext createContext(String name, Class<?>... componentClasses) {
+        log.info("Create context for instance {}", name);
+        final AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.setDisplayName("instance " + name);
+        context.setParent(applicationContext);
+        context.getEnvironment().getPropertySources().addFirst(new InstancePropertySource(name, environment));
+        context.register(componentClasses);
+        context.refresh();
+        contexts.add(context);
+        return context;
+    }
+
+    /**
+     * Closes the application contexts of the instances
+     */
+    @PreDestroy
+    public synchronized void close() {
+        contexts.forEach(AnnotationConfigApplicationContext::close);
+        contexts.clear();
+    }
+
+    /**
+     * Excludes the components created for each instance from the component scan of the parent context when
+     * instances are configured, so that the parent does not create unused copies of them
+     */
+    public static final class InstanceComponentFilter implements TypeFilter, EnvironmentAware {
+
+        private static final Set<String> CLASS_NAMES = Collections.unmodifiableSet(Arrays.stream(INSTANCE_COMPONENTS)
+            .map(Class::getName)
+            .collect(Collectors.toSet()));
+
+        private Environment environment;
+
+        @Override
+        public void setEnvironment(Environment scanEnvironment) {
+            this.environment = scanEnvironment;
+        }
+
+        @Override
+        public boolean match(MetadataReader metadataReader, MetadataReaderFactory metadataReaderFactory) {
+            return CLASS_NAMES.contains(metadataReader.getClassMetadata().getClassName())
+                && !getNames(environment).isEmpty();
+        }
+    }
+
+    /**
+     * Properties of an instance, read from the parent environment with the instance prefix
+     */
+    private static final class InstancePropertySource extends PropertySource<Environment> {
+
+        private final String prefix;
+
+        private InstancePropertySource(String name, Environment parent) {
+            super("instance-" + name, parent);
+            prefix = MonitorCollectorPropertyKeys.INSTANCE_PREFIX + name + ".";
+        }
+
+        @Override
+        public Object getProperty(String key) {
+            return getSource().getProperty(prefix + key);
+        }
+    }
+}
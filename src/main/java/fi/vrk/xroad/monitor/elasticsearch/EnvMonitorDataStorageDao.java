@@ -22,17 +22,24 @@
  */
 package fi.vrk.xroad.monitor.elasticsearch;
 
+import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.action.admin.indices.alias.IndicesAliasesResponse;
 import org.elasticsearch.action.admin.indices.alias.exists.AliasesExistResponse;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexResponse;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsResponse;
 import org.elasticsearch.action.admin.indices.flush.FlushResponse;
+import org.elasticsearch.action.admin.indices.rollover.RolloverResponse;
+import org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateResponse;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesReference;
 
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Interface for loading/saving env monitor data
@@ -44,6 +51,39 @@ public interface EnvMonitorDataStorageDao {
    */
   IndexResponse save(String index, String type, String json);
 
+  /**
+   * Save JSON document as is
+   */
+  IndexResponse save(String index, String type, BytesReference source);
+
+  /**
+   * Queue JSON document for bulk indexing, the document is sent when the bulk is full or flushed
+   * @return completed when the document has been indexed, or exceptionally when indexing failed
+   */
+  CompletableFuture<DocWriteResponse> addToBulk(String index, String type, BytesReference source);
+
+  /**
+   * Queue JSON document with given id for bulk indexing, an existing document with the id is replaced
+   * @return completed when the document has been indexed, or exceptionally when indexing failed
+   */
+  CompletableFuture<DocWriteResponse> addToBulk(String index, String type, String id, BytesReference source);
+
+  /**
+   * Send queued documents and wait for bulk requests in flight to complete
+   * @param timeout
+   * @param unit
+   * @return true if bulk requests completed before the timeout
+   */
+  boolean flushBulk(long timeout, TimeUnit unit) throws InterruptedException;
+
+  /**
+   * Send queued documents without waiting for bulk requests in flight to complete
+   * @param timeout
+   * @param unit
+   * @return completed with true when bulk requests in flight have completed, or with false at the timeout
+   */
+  CompletableFuture<Boolean> flushBulkAsync(long timeout, TimeUnit unit);
+
   /**
    * Load data
    */
@@ -63,6 +103,21 @@ public interface EnvMonitorDataStorageDao {
    */
   IndicesAliasesResponse removeAllIndexesFromAlias(String alias);
 
+  /**
+   * Point alias to given index only, removing it from other indexes in the same atomic request
+   * @param index
+   * @param alias
+   * @return
+   */
+  IndicesAliasesResponse moveAlias(String index, String alias) throws ExecutionException, InterruptedException;
+
+  /**
+   * Find indexes the given alias points to
+   * @param alias
+   * @return index names, empty if the alias does not exist
+   */
+  Set<String> getAliasIndexes(String alias) throws ExecutionException, InterruptedException;
+
   /**
    * Tests if given alias exists
    * @param alias
@@ -104,4 +159,26 @@ public interface EnvMonitorDataStorageDao {
    */
   CreateIndexResponse createIndex(String index) throws ExecutionException, InterruptedException;
 
+  /**
+   * Create new index and move alias to it if the current index of the alias meets any of the conditions
+   * @param alias alias pointing to a single index with a name ending in a number
+   * @param maxAge maximum index age in milliseconds, not checked if not positive
+   * @param maxDocs maximum number of documents, not checked if not positive
+   * @param maxSizeMb maximum size of primary shards in megabytes, not checked if not positive
+   * @return rollover response
+   */
+  RolloverResponse rollover(String alias, long maxAge, long maxDocs, long maxSizeMb)
+      throws ExecutionException, InterruptedException;
+
+  /**
+   * Create or replace index template applied to new indexes matching the pattern
+   * @param name template name
+   * @param pattern index name pattern
+   * @param type document type
+   * @param mapping JSON mapping of the document type
+   * @return put template response
+   */
+  PutIndexTemplateResponse putIndexTemplate(String name, String pattern, String type, String mapping)
+      throws ExecutionException, InterruptedException;
+
 }
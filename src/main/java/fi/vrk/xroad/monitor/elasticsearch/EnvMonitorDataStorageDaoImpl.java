@@ -22,6 +22,8 @@
  */
 package fi.vrk.xroad.monitor.elasticsearch;
 
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.action.admin.indices.alias.IndicesAliasesResponse;
 import org.elasticsearch.action.admin.indices.alias.exists.AliasesExistResponse;
@@ -32,15 +34,33 @@ import org.elasticsearch.action.admin.indices.delete.DeleteIndexResponse;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsResponse;
 import org.elasticsearch.action.admin.indices.flush.FlushRequest;
 import org.elasticsearch.action.admin.indices.flush.FlushResponse;
+import org.elasticsearch.action.admin.indices.rollover.RolloverRequestBuilder;
+import org.elasticsearch.action.admin.indices.rollover.RolloverResponse;
+import org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateRequest;
+import org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateResponse;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.UUIDs;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.client.PreBuiltTransportClient;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Repository;
 
@@ -48,7 +68,16 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
 
@@ -58,6 +87,8 @@ import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
  */
 @Slf4j
 @Repository
+@ConditionalOnProperty(name = MonitorCollectorPropertyKeys.SINK,
+    havingValue = MonitorCollectorConstants.SINK_ELASTICSEARCH, matchIfMissing = true)
 public class EnvMonitorDataStorageDaoImpl implements EnvMonitorDataStorageDao {
 
   @Autowired
@@ -65,8 +96,17 @@ public class EnvMonitorDataStorageDaoImpl implements EnvMonitorDataStorageDao {
 
   private TransportClient client;
 
+  private BulkProcessor bulkProcessor;
+
+  private final Object bulkLock = new Object();
+
+  private int bulkRequestsInFlight;
+
+  // completed when no bulk request is in flight, guarded by bulkLock
+  private final List<CompletableFuture<Boolean>> flushWaiters = new ArrayList<>();
+
   /**
-   * Initializes transport client
+   * Initializes transport client and bulk processor
    * @throws UnknownHostException
    */
   @PostConstruct
@@ -77,6 +117,26 @@ public class EnvMonitorDataStorageDaoImpl implements EnvMonitorDataStorageDao {
         .addTransportAddress(new TransportAddress(
             InetAddress.getByName(environment.getProperty("xroad-monitor-collector-elasticsearch.host")),
             Integer.parseInt(environment.getProperty("xroad-monitor-collector-elasticsearch.port"))));
+    bulkProcessor = BulkProcessor.builder(client, new BulkListener())
+        .setBulkActions(getIntProperty(MonitorCollectorPropertyKeys.ES_BULK_ACTIONS,
+            MonitorCollectorConstants.DEFAULT_ES_BULK_ACTIONS))
+        .setBulkSize(new ByteSizeValue(getIntProperty(MonitorCollectorPropertyKeys.ES_BULK_SIZE_MB,
+            MonitorCollectorConstants.DEFAULT_ES_BULK_SIZE_MB), ByteSizeUnit.MB))
+        .setFlushInterval(TimeValue.timeValueMillis(getIntProperty(MonitorCollectorPropertyKeys.ES_BULK_FLUSH_INTERVAL,
+            MonitorCollectorConstants.DEFAULT_ES_BULK_FLUSH_INTERVAL)))
+        .setConcurrentRequests(getIntProperty(MonitorCollectorPropertyKeys.ES_BULK_CONCURRENT_REQUESTS,
+            MonitorCollectorConstants.DEFAULT_ES_BULK_CONCURRENT_REQUESTS))
+        // items rejected by a full write queue are retried, other item failures are reported by the listener
+        .setBackoffPolicy(BackoffPolicy.exponentialBackoff(
+            TimeValue.timeValueMillis(getIntProperty(MonitorCollectorPropertyKeys.ES_BULK_BACKOFF_INITIAL_DELAY,
+                MonitorCollectorConstants.DEFAULT_ES_BULK_BACKOFF_INITIAL_DELAY)),
+            getIntProperty(MonitorCollectorPropertyKeys.ES_BULK_BACKOFF_RETRIES,
+                MonitorCollectorConstants.DEFAULT_ES_BULK_BACKOFF_RETRIES)))
+        .build();
+  }
+
+  private int getIntProperty(String key, int defaultValue) {
+    return environment.getProperty(key, Integer.class, defaultValue);
   }
 
   @Override
@@ -85,6 +145,73 @@ public class EnvMonitorDataStorageDaoImpl implements EnvMonitorDataStorageDao {
     return client.prepareIndex(index, type).setSource(json, XContentType.JSON).get();
   }
 
+  @Override
+  public IndexResponse save(String index, String type, BytesReference source) {
+    if (log.isDebugEnabled()) {
+      log.debug("Elasticsearch data: {}", source.utf8ToString());
+    }
+    return client.prepareIndex(index, type).setSource(source, XContentType.JSON).get();
+  }
+
+  @Override
+  public CompletableFuture<DocWriteResponse> addToBulk(String index, String type, BytesReference source) {
+    // responses are matched to documents by id since retried items are not in their original positions
+    return addToBulk(index, type, UUIDs.base64UUID(), source);
+  }
+
+  @Override
+  public CompletableFuture<DocWriteResponse> addToBulk(String index, String type, String id,
+                                                       BytesReference source) {
+    if (log.isDebugEnabled()) {
+      log.debug("Elasticsearch bulk data: {}", source.utf8ToString());
+    }
+    final CompletableFuture<DocWriteResponse> future = new CompletableFuture<>();
+    try {
+      bulkProcessor.add(client.prepareIndex(index, type, id)
+          .setSource(source, XContentType.JSON).request(), future);
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  @Override
+  public boolean flushBulk(long timeout, TimeUnit unit) throws InterruptedException {
+    // with concurrent requests flush only hands the pending bulk over, so wait for all bulks in flight
+    bulkProcessor.flush();
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (bulkLock) {
+      while (bulkRequestsInFlight > 0) {
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          log.warn("{} bulk requests still in flight after {} {}", bulkRequestsInFlight, timeout, unit);
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(bulkLock, remaining);
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public CompletableFuture<Boolean> flushBulkAsync(long timeout, TimeUnit unit) {
+    bulkProcessor.flush();
+    final CompletableFuture<Boolean> flushed = new CompletableFuture<>();
+    synchronized (bulkLock) {
+      if (bulkRequestsInFlight == 0) {
+        flushed.complete(true);
+        return flushed;
+      }
+      flushWaiters.add(flushed);
+    }
+    client.threadPool().schedule(TimeValue.timeValueNanos(unit.toNanos(timeout)), ThreadPool.Names.SAME, () -> {
+      if (flushed.complete(false)) {
+        log.warn("Bulk requests still in flight after {} {}", timeout, unit);
+      }
+    });
+    return flushed;
+  }
+
   @Override
   public GetResponse load(String index, String type, String json) {
     return client.prepareGet(index, type, json).get();
@@ -100,6 +227,27 @@ public class EnvMonitorDataStorageDaoImpl implements EnvMonitorDataStorageDao {
     return client.admin().indices().prepareAliases().removeAlias("*", alias).get();
   }
 
+  @Override
+  public IndicesAliasesResponse moveAlias(String index, String alias) throws ExecutionException,
+      InterruptedException {
+    // removing from indexes that do not have the alias is skipped, the request fails only if nothing is done
+    return client.admin().indices().prepareAliases()
+        .removeAlias("*", alias)
+        .addAlias(index, alias)
+        .execute().get();
+  }
+
+  @Override
+  public Set<String> getAliasIndexes(String alias) throws ExecutionException, InterruptedException {
+    final Set<String> indexes = new HashSet<>();
+    client.admin().indices().getAliases(new GetAliasesRequest(alias)).get().getAliases().forEach(entry -> {
+      if (!entry.value.isEmpty()) {
+        indexes.add(entry.key);
+      }
+    });
+    return indexes;
+  }
+
   @Override
   public AliasesExistResponse aliasExists(String alias) throws ExecutionException, InterruptedException {
     return client.admin().indices().aliasesExist(new GetAliasesRequest(alias)).get();
@@ -130,11 +278,114 @@ public class EnvMonitorDataStorageDaoImpl implements EnvMonitorDataStorageDao {
     return client.admin().indices().create(new CreateIndexRequest(index)).get();
   }
 
+  @Override
+  public RolloverResponse rollover(String alias, long maxAge, long maxDocs, long maxSizeMb)
+      throws ExecutionException, InterruptedException {
+    final RolloverRequestBuilder rollover = client.admin().indices().prepareRolloverIndex(alias);
+    if (maxAge > 0) {
+      rollover.addMaxIndexAgeCondition(TimeValue.timeValueMillis(maxAge));
+    }
+    if (maxDocs > 0) {
+      rollover.addMaxIndexDocsCondition(maxDocs);
+    }
+    if (maxSizeMb > 0) {
+      rollover.addMaxIndexSizeCondition(new ByteSizeValue(maxSizeMb, ByteSizeUnit.MB));
+    }
+    return rollover.execute().get();
+  }
+
+  @Override
+  public PutIndexTemplateResponse putIndexTemplate(String name, String pattern, String type, String mapping)
+      throws ExecutionException, InterruptedException {
+    return client.admin().indices().putTemplate(new PutIndexTemplateRequest(name)
+        .patterns(Collections.singletonList(pattern))
+        .mapping(type, mapping, XContentType.JSON)).get();
+  }
+
   /**
-   * Closes transport client
+   * Indexes queued documents and closes transport client
+   * @throws InterruptedException
    */
   @PreDestroy
-  public void shutdown() {
-    client.close();
+  public void shutdown() throws InterruptedException {
+    final int timeout = getIntProperty(MonitorCollectorPropertyKeys.ES_BULK_AWAIT_TIMEOUT,
+        MonitorCollectorConstants.DEFAULT_ES_BULK_AWAIT_TIMEOUT);
+    try {
+      if (!bulkProcessor.awaitClose(timeout, TimeUnit.MILLISECONDS)) {
+        log.warn("Bulk requests did not complete in {} ms", timeout);
+      }
+    } finally {
+      client.close();
+    }
+  }
+
+  /**
+   * Completes the futures of bulk documents, futures are completed before the bulk is no longer counted in flight
+   */
+  @SuppressWarnings("unchecked")
+  private void bulkCompleted(BulkRequest request, BulkResponse response, Throwable failure) {
+    final Map<String, BulkItemResponse> items = new HashMap<>();
+    if (response != null) {
+      for (BulkItemResponse item : response) {
+        items.put(item.getId(), item);
+      }
+    }
+    final List<DocWriteRequest> documents = request.requests();
+    final List<Object> payloads = request.payloads();
+    for (int i = 0; i < documents.size(); i++) {
+      final CompletableFuture<DocWriteResponse> future = (CompletableFuture<DocWriteResponse>) payloads.get(i);
+      final BulkItemResponse item = items.get(documents.get(i).id());
+      if (failure != null) {
+        future.completeExceptionally(failure);
+      } else if (item == null) {
+        future.completeExceptionally(new IllegalStateException("No bulk response for " + documents.get(i).id()));
+      } else if (item.isFailed()) {
+        future.completeExceptionally(item.getFailure().getCause());
+      } else {
+        future.complete(item.getResponse());
+      }
+    }
+    final List<CompletableFuture<Boolean>> flushed;
+    synchronized (bulkLock) {
+      bulkRequestsInFlight--;
+      bulkLock.notifyAll();
+      if (bulkRequestsInFlight > 0 || flushWaiters.isEmpty()) {
+        return;
+      }
+      flushed = new ArrayList<>(flushWaiters);
+      flushWaiters.clear();
+    }
+    flushed.forEach(future -> future.complete(true));
+  }
+
+  /**
+   * Keeps count of bulk requests in flight, logs failed documents and completes document futures
+   */
+  private class BulkListener implements BulkProcessor.Listener {
+
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+      synchronized (bulkLock) {
+        bulkRequestsInFlight++;
+      }
+      log.debug("Execute bulk {} with {} documents", executionId, request.numberOfActions());
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+      if (response.hasFailures()) {
+        log.error("Bulk {} completed with failures: {}", executionId, response.buildFailureMessage());
+      } else {
+        log.debug("Bulk {} with {} documents completed in {}", executionId, request.numberOfActions(),
+            response.getTook());
+      }
+      bulkCompleted(request, response, null);
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+      log.error("Bulk {} with {} documents failed", executionId, request.numberOfActions(), failure);
+      bulkCompleted(request, null, failure);
+    }
   }
 }
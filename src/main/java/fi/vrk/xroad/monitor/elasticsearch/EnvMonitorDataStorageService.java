@@ -22,18 +22,15 @@
  */
 package fi.vrk.xroad.monitor.elasticsearch;
 
+import fi.vrk.xroad.monitor.sink.MonitorDataSink;
+
 import java.util.concurrent.ExecutionException;
 
 /**
- * Interface for Elasticsearch data storage service
+ * Interface for Elasticsearch data storage service. Documents are queued for bulk indexing and spooled
+ * to disk when Elasticsearch is unavailable, {@link #flush()} sends the queued documents.
  */
-public interface EnvMonitorDataStorageService {
-
-  /**
-   * Save json to Elasticsearch
-   * @param json
-   */
-  void save(String json) throws ExecutionException, InterruptedException;
+public interface EnvMonitorDataStorageService extends MonitorDataSink {
 
   /**
    * Update alias
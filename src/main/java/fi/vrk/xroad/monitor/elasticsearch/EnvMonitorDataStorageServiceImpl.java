@@ -22,21 +22,48 @@
  */
 package fi.vrk.xroad.monitor.elasticsearch;
 
+import fi.vrk.xroad.monitor.spool.MonitorDataSpool;
+import fi.vrk.xroad.monitor.spool.SpoolRecord;
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.admin.indices.rollover.RolloverResponse;
+import org.elasticsearch.common.UUIDs;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.rest.RestStatus;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
 
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 
 import static fi.vrk.xroad.monitor.util.MonitorCollectorDataUtils.getIndexName;
+import static fi.vrk.xroad.monitor.util.MonitorCollectorDataUtils.isTransientFailure;
 
 /**
  * Elasticsearch data storage service implementation
  */
 @Slf4j
 @Service
+@ConditionalOnProperty(name = MonitorCollectorPropertyKeys.SINK,
+    havingValue = MonitorCollectorConstants.SINK_ELASTICSEARCH, matchIfMissing = true)
 public class EnvMonitorDataStorageServiceImpl implements EnvMonitorDataStorageService {
 
   @Autowired
@@ -45,33 +72,202 @@ public class EnvMonitorDataStorageServiceImpl implements EnvMonitorDataStorageSe
   @Autowired
   private Environment environment;
 
+  @Autowired
+  private MonitorDataSpool spool;
+
+  private String indexPrefix;
+
+  private String type;
+
+  private String alias;
+
+  private volatile CurrentIndex currentIndex;
+
+  // mapping installed as index template for new indexes, null when templates are not installed
+  private String indexTemplateMapping;
+
+  // with rollover documents are written to the alias and a new index is started when the current one is full
+  private boolean rollover;
+
+  private Pattern rolloverIndexName;
+
+  /**
+   * Reads index configuration
+   * @throws IOException if the index template can not be read
+   */
+  @PostConstruct
+  public void init() throws IOException {
+    indexPrefix = environment.getProperty("xroad-monitor-collector-elasticsearch.index");
+    type = environment.getProperty("xroad-monitor-collector-elasticsearch.type");
+    alias = environment.getProperty("xroad-monitor-collector-elasticsearch.alias");
+    currentIndex = new CurrentIndex(indexPrefix, System.currentTimeMillis());
+    final String indexMode = environment.getProperty(MonitorCollectorPropertyKeys.ES_INDEX_MODE,
+        MonitorCollectorConstants.INDEX_MODE_DAILY);
+    if (!MonitorCollectorConstants.INDEX_MODE_DAILY.equals(indexMode)
+        && !MonitorCollectorConstants.INDEX_MODE_ROLLOVER.equals(indexMode)) {
+      throw new IllegalArgumentException("Unknown index mode " + indexMode);
+    }
+    rollover = MonitorCollectorConstants.INDEX_MODE_ROLLOVER.equals(indexMode);
+    rolloverIndexName = Pattern.compile(Pattern.quote(indexPrefix) + "-\\d+");
+    if (environment.getProperty(MonitorCollectorPropertyKeys.ES_INDEX_TEMPLATE_ENABLED, Boolean.class, true)) {
+      final ClassPathResource template = new ClassPathResource(MonitorCollectorConstants.INDEX_TEMPLATE_RESOURCE);
+      try (InputStream in = template.getInputStream()) {
+        indexTemplateMapping = StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+      }
+    }
+  }
+
+  @Override
+  public CompletableFuture<SaveResult> save(String id, String json) {
+    return save(id, new BytesArray(json));
+  }
+
   @Override
-  public synchronized void save(String json) throws ExecutionException, InterruptedException {
-    final String index = getIndexName(environment);
-    final String type = environment.getProperty("xroad-monitor-collector-elasticsearch.type");
-    log.debug("Store data to index: {}", index);
-    IndexResponse save = envMonitorDataStorageDao.save(index, type, json);
-    log.debug("Save response: {}", save);
+  public CompletableFuture<SaveResult> save(String id, BytesReference document) {
+    // the id is given here so that a spooled document keeps it when replayed
+    final SpoolRecord record = new SpoolRecord(getCurrentIndexName(), id != null ? id : UUIDs.base64UUID(),
+        document);
+    if (spool.isPending()) {
+      // Elasticsearch has not accepted the earlier documents yet, keep spooling until they are replayed
+      return spool(record, null);
+    }
+    log.debug("Store data to index: {}", record.getIndex());
+    return envMonitorDataStorageDao.addToBulk(record.getIndex(), type, record.getId(), document)
+        .handle((response, failure) -> failure == null
+            ? CompletableFuture.completedFuture(SaveResult.STORED) : spool(record, failure))
+        .thenCompose(Function.identity());
+  }
+
+  /**
+   * Spools the document if indexing failed transiently. A document rejected because Elasticsearch is
+   * overloaded is reported as such, so that the writer slows down even though the document was spooled.
+   * @param record
+   * @param failure indexing failure or null if indexing was not tried
+   */
+  private CompletableFuture<SaveResult> spool(SpoolRecord record, Throwable failure) {
+    final CompletableFuture<SaveResult> result = new CompletableFuture<>();
+    final Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+    if (cause != null && (!spool.isEnabled() || !isTransientFailure(cause))) {
+      result.completeExceptionally(cause);
+      return result;
+    }
+    try {
+      spool.append(record);
+      log.info("Spooled {}", record);
+      result.complete(cause != null && ExceptionsHelper.status(cause) == RestStatus.TOO_MANY_REQUESTS
+          ? SaveResult.SPOOLED_AFTER_REJECTION : SaveResult.SPOOLED);
+    } catch (IOException e) {
+      if (cause != null) {
+        e.addSuppressed(cause);
+      }
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  @Override
+  public CompletableFuture<Boolean> flush() {
+    final int timeout = environment.getProperty(MonitorCollectorPropertyKeys.ES_BULK_AWAIT_TIMEOUT, Integer.class,
+        MonitorCollectorConstants.DEFAULT_ES_BULK_AWAIT_TIMEOUT);
+    log.debug("Flush queued documents");
+    return envMonitorDataStorageDao.flushBulkAsync(timeout, TimeUnit.MILLISECONDS);
   }
 
   @Override
   public synchronized void createIndexAndUpdateAlias() throws ExecutionException, InterruptedException {
-    final String index = getIndexName(environment);
-    final String alias = environment.getProperty("xroad-monitor-collector-elasticsearch.alias");
+    if (rollover) {
+      rolloverIndex();
+      return;
+    }
+    final String index = getCurrentIndexName();
     if (!envMonitorDataStorageDao.indexExists(index).isExists()) {
+      putIndexTemplate();
       log.info("Create index {}", index);
       envMonitorDataStorageDao.createIndex(index);
-      if (envMonitorDataStorageDao.aliasExists(alias).exists()) {
-        log.info("Alias exists, remove all indexes from alias {}", alias);
-        envMonitorDataStorageDao.removeAllIndexesFromAlias(alias);
-      } else {
-        log.info("Alias {} does not yet exist", alias);
-      }
-      log.info("Create alias, add index {} to alias {}", index, alias);
-      envMonitorDataStorageDao.addIndexToAlias(index, alias);
+      log.info("Move alias {} to index {}", alias, index);
+      envMonitorDataStorageDao.moveAlias(index, alias);
       envMonitorDataStorageDao.flush();
     } else {
       log.info("Index already exists");
     }
   }
+
+  /**
+   * Starts a new index when the current index of the alias meets a rollover condition. When the alias does
+   * not exist yet or points to daily indexes, it is moved to the first rollover index.
+   */
+  private void rolloverIndex() throws ExecutionException, InterruptedException {
+    putIndexTemplate();
+    final Set<String> indexes = envMonitorDataStorageDao.getAliasIndexes(alias);
+    if (indexes.size() == 1 && rolloverIndexName.matcher(indexes.iterator().next()).matches()) {
+      final RolloverResponse response = envMonitorDataStorageDao.rollover(alias,
+          environment.getProperty(MonitorCollectorPropertyKeys.ES_ROLLOVER_MAX_AGE, Long.class,
+              MonitorCollectorConstants.DEFAULT_ES_ROLLOVER_MAX_AGE),
+          environment.getProperty(MonitorCollectorPropertyKeys.ES_ROLLOVER_MAX_DOCS, Long.class,
+              MonitorCollectorConstants.DEFAULT_ES_ROLLOVER_MAX_DOCS),
+          environment.getProperty(MonitorCollectorPropertyKeys.ES_ROLLOVER_MAX_SIZE_MB, Long.class,
+              MonitorCollectorConstants.DEFAULT_ES_ROLLOVER_MAX_SIZE_MB));
+      if (response.isRolledOver()) {
+        log.info("Rolled over alias {} from index {} to {}", alias, response.getOldIndex(), response.getNewIndex());
+      } else {
+        log.info("Index {} does not need rollover, conditions {}", response.getOldIndex(),
+            response.getConditionStatus());
+      }
+      return;
+    }
+    final String index = String.format("%s-%06d", indexPrefix, 1);
+    if (!envMonitorDataStorageDao.indexExists(index).isExists()) {
+      log.info("Create index {}", index);
+      envMonitorDataStorageDao.createIndex(index);
+    }
+    log.info("Move alias {} from {} to index {}", alias, indexes, index);
+    envMonitorDataStorageDao.moveAlias(index, alias);
+  }
+
+  private void putIndexTemplate() throws ExecutionException, InterruptedException {
+    if (indexTemplateMapping != null) {
+      // the template is replaced before each new index so that mapping changes take effect
+      log.info("Put index template {}", indexPrefix);
+      envMonitorDataStorageDao.putIndexTemplate(indexPrefix, indexPrefix + "-*", type, indexTemplateMapping);
+    }
+  }
+
+  /**
+   * Index name is computed again only after midnight, concurrent callers may both compute it.
+   * With rollover documents are written to the alias.
+   * @return name of the index for today
+   */
+  private String getCurrentIndexName() {
+    if (rollover) {
+      return alias;
+    }
+    CurrentIndex index = currentIndex;
+    final long now = System.currentTimeMillis();
+    if (now >= index.getValidUntil()) {
+      index = new CurrentIndex(indexPrefix, now);
+      currentIndex = index;
+    }
+    return index.getName();
+  }
+
+  /**
+   * Index name for a day and the time it changes
+   */
+  @Getter
+  static final class CurrentIndex {
+    private final String name;
+    private final long validUntil;
+
+    CurrentIndex(String prefix, long now) {
+      final Calendar calendar = Calendar.getInstance();
+      calendar.setTimeInMillis(now);
+      name = getIndexName(prefix, calendar);
+      calendar.set(Calendar.HOUR_OF_DAY, 0);
+      calendar.set(Calendar.MINUTE, 0);
+      calendar.set(Calendar.SECOND, 0);
+      calendar.set(Calendar.MILLISECOND, 0);
+      calendar.add(Calendar.DATE, 1);
+      validUntil = calendar.getTimeInMillis();
+    }
+  }
 }
@@ -0,0 +1,360 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.extractor;
+
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.net.ssl.SSLContext;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pooled keep-alive connections to the client security server. All monitoring requests go to the same
+ * client security server, so both the blocking and the non-blocking client share one SSL context and
+ * resume each other's TLS sessions.
+ */
+@Slf4j
+@Component
+public class MonitorDataConnectionManager {
+
+    @Autowired
+    private Environment environment;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private PoolingNHttpClientConnectionManager asyncConnectionManager;
+    private CloseableHttpAsyncClient asyncClient;
+    private ScheduledExecutorService idleConnectionEvictor;
+    private int idleTimeout;
+    private RequestConfig requestConfig;
+
+    /**
+     * Creates the connection pools and HTTP clients
+     */
+    @PostConstruct
+    public void init() throws GeneralSecurityException, IOException {
+        final int maxTotal = environment.getProperty(MonitorCollectorPropertyKeys.POOL_MAX_TOTAL, Integer.class,
+            MonitorCollectorConstants.DEFAULT_POOL_MAX_TOTAL);
+        final int maxPerRoute = environment.getProperty(MonitorCollectorPropertyKeys.POOL_MAX_PER_ROUTE,
+            Integer.class, MonitorCollectorConstants.DEFAULT_POOL_MAX_PER_ROUTE);
+        idleTimeout = environment.getProperty(MonitorCollectorPropertyKeys.POOL_IDLE_TIMEOUT, Integer.class,
+            MonitorCollectorConstants.DEFAULT_POOL_IDLE_TIMEOUT);
+        requestConfig = RequestConfig.custom()
+            .setConnectionRequestTimeout(environment.getProperty(
+                MonitorCollectorPropertyKeys.CONNECTION_REQUEST_TIMEOUT, Integer.class,
+                MonitorCollectorConstants.DEFAULT_CONNECTION_REQUEST_TIMEOUT))
+            .setConnectTimeout(environment.getProperty(MonitorCollectorPropertyKeys.CONNECT_TIMEOUT, Integer.class,
+                MonitorCollectorConstants.DEFAULT_CONNECT_TIMEOUT))
+            .setSocketTimeout(environment.getProperty(MonitorCollectorPropertyKeys.SOCKET_TIMEOUT, Integer.class,
+                MonitorCollectorConstants.DEFAULT_SOCKET_TIMEOUT))
+            .build();
+        log.info("Request timeouts: connection request {} ms, connect {} ms, socket {} ms",
+            requestConfig.getConnectionRequestTimeout(), requestConfig.getConnectTimeout(),
+            requestConfig.getSocketTimeout());
+        SSLContext sslContext = createSslContext();
+
+        RegistryBuilder<ConnectionSocketFactory> registryBuilder = RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", PlainConnectionSocketFactory.getSocketFactory());
+        if (sslContext != null) {
+            registryBuilder.register("https", new SSLConnectionSocketFactory(sslContext,
+                NoopHostnameVerifier.INSTANCE));
+        }
+        connectionManager = new PoolingHttpClientConnectionManager(registryBuilder.build());
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setValidateAfterInactivity(environment.getProperty(
+            MonitorCollectorPropertyKeys.POOL_VALIDATE_AFTER_INACTIVITY, Integer.class,
+            MonitorCollectorConstants.DEFAULT_POOL_VALIDATE_AFTER_INACTIVITY));
+        // connections authenticated with client certificate are stateful, disabling the connection state
+        // allows them to be reused by any request
+        httpClient = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(getRequestConfig())
+            .disableConnectionState()
+            .build();
+
+        if (environment.getProperty(MonitorCollectorPropertyKeys.ASYNC_REQUESTS, Boolean.class, false)) {
+            RegistryBuilder<SchemeIOSessionStrategy> asyncRegistryBuilder =
+                RegistryBuilder.<SchemeIOSessionStrategy>create().register("http", NoopIOSessionStrategy.INSTANCE);
+            if (sslContext != null) {
+                asyncRegistryBuilder.register("https", new SSLIOSessionStrategy(sslContext,
+                    NoopHostnameVerifier.INSTANCE));
+            }
+            Registry<SchemeIOSessionStrategy> asyncRegistry = asyncRegistryBuilder.build();
+            asyncConnectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(),
+                asyncRegistry);
+            asyncConnectionManager.setMaxTotal(maxTotal);
+            asyncConnectionManager.setDefaultMaxPerRoute(maxPerRoute);
+            asyncClient = HttpAsyncClients.custom()
+                .setConnectionManager(asyncConnectionManager)
+                .setDefaultRequestConfig(getRequestConfig())
+                .disableConnectionState()
+                .build();
+            asyncClient.start();
+        }
+
+        idleConnectionEvictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idle-connection-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        idleConnectionEvictor.scheduleWithFixedDelay(this::closeIdleConnections, idleTimeout, idleTimeout,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return pooled blocking HTTP client
+     */
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * @return pooled non-blocking HTTP client
+     * @throws IllegalStateException if asynchronous requests are not enabled
+     */
+    public CloseableHttpAsyncClient getAsyncClient() {
+        if (asyncClient == null) {
+            throw new IllegalStateException("Asynchronous requests are not enabled");
+        }
+        return asyncClient;
+    }
+
+    /**
+     * Opens the configured number of connections to the client security server before a collection run, so
+     * that the first requests of the run do not pay for TCP and TLS handshakes. Connections are opened in the
+     * pool of the client that makes the requests, the non-blocking one when asynchronous requests are
+     * enabled. TLS sessions established here are resumed by both clients. Failures are logged and ignored.
+     */
+    public void prewarm() {
+        final int connections = environment.getProperty(MonitorCollectorPropertyKeys.POOL_PREWARM_CONNECTIONS,
+            Integer.class, 0);
+        if (connections <= 0) {
+            return;
+        }
+        final String clientUrl = environment.getProperty(MonitorCollectorPropertyKeys.CLIENT_URL);
+        try {
+            HttpHost target = URIUtils.extractHost(URI.create(clientUrl));
+            HttpRoute route = new HttpRoute(new HttpHost(target.getHostName(),
+                DefaultSchemePortResolver.INSTANCE.resolve(target), target.getSchemeName()), null,
+                "https".equalsIgnoreCase(target.getSchemeName()));
+            // the async client exists only when asynchronous requests are enabled
+            if (asyncConnectionManager != null) {
+                prewarmAsync(route, connections);
+            } else {
+                prewarmBlocking(route, connections);
+            }
+            log.info("Pre-warmed {} connections to {}", connections, clientUrl);
+        } catch (IOException | ExecutionException | TimeoutException | RuntimeException e) {
+            log.warn("Failed to pre-warm connections to {}: {}", clientUrl, e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void prewarmBlocking(HttpRoute route, int connections)
+        throws IOException, ExecutionException, InterruptedException {
+        final int connectTimeout = getRequestConfig().getConnectTimeout();
+        List<HttpClientConnection> leased = new ArrayList<>();
+        try {
+            // lease all connections before releasing any, otherwise the same connection would be reused
+            for (int i = 0; i < connections; i++) {
+                HttpClientConnection connection = connectionManager.requestConnection(route, null)
+                    .get(connectTimeout, TimeUnit.MILLISECONDS);
+                leased.add(connection);
+                if (!connection.isOpen()) {
+                    HttpClientContext context = HttpClientContext.create();
+                    connectionManager.connect(connection, route, connectTimeout, context);
+                    connectionManager.routeComplete(connection, route, context);
+                }
+            }
+        } finally {
+            leased.forEach(connection -> connectionManager.releaseConnection(connection, null, idleTimeout,
+                TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private void prewarmAsync(HttpRoute route, int connections)
+        throws IOException, ExecutionException, TimeoutException, InterruptedException {
+        final int connectTimeout = getRequestConfig().getConnectTimeout();
+        List<NHttpClientConnection> leased = new ArrayList<>();
+        try {
+            // lease all connections before releasing any, the pool connects new connections when leasing them
+            for (int i = 0; i < connections; i++) {
+                NHttpClientConnection connection = asyncConnectionManager.requestConnection(route, null,
+                    connectTimeout, connectTimeout, TimeUnit.MILLISECONDS, null)
+                    .get(connectTimeout, TimeUnit.MILLISECONDS);
+                leased.add(connection);
+                if (!asyncConnectionManager.isRouteComplete(connection)) {
+                    // starts the TLS handshake of https routes
+                    HttpClientContext context = HttpClientContext.create();
+                    asyncConnectionManager.startRoute(connection, route, context);
+                    asyncConnectionManager.routeComplete(connection, route, context);
+                }
+            }
+        } finally {
+            leased.forEach(connection -> asyncConnectionManager.releaseConnection(connection, null, idleTimeout,
+                TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * @return connection pool statistics for logging
+     */
+    public String getPoolStats() {
+        return String.format("blocking %s, non-blocking %s", connectionManager.getTotalStats(),
+            asyncConnectionManager != null ? asyncConnectionManager.getTotalStats() : "disabled");
+    }
+
+    /**
+     * @return default request configuration for monitoring requests
+     */
+    public RequestConfig getRequestConfig() {
+        return requestConfig;
+    }
+
+    /**
+     * @param remaining milliseconds left until the deadline of the collection run
+     * @return request configuration with every timeout shortened to the remaining time
+     */
+    public RequestConfig getRequestConfig(long remaining) {
+        final int limit = (int) Math.max(1, Math.min(Integer.MAX_VALUE, remaining));
+        final int connectionRequestTimeout = shorten(requestConfig.getConnectionRequestTimeout(), limit);
+        final int connectTimeout = shorten(requestConfig.getConnectTimeout(), limit);
+        final int socketTimeout = shorten(requestConfig.getSocketTimeout(), limit);
+        if (connectionRequestTimeout == requestConfig.getConnectionRequestTimeout()
+            && connectTimeout == requestConfig.getConnectTimeout()
+            && socketTimeout == requestConfig.getSocketTimeout()) {
+            return requestConfig;
+        }
+        return RequestConfig.copy(requestConfig)
+            .setConnectionRequestTimeout(connectionRequestTimeout)
+            .setConnectTimeout(connectTimeout)
+            .setSocketTimeout(socketTimeout)
+            .build();
+    }
+
+    /**
+     * Timeout of zero or less means no timeout
+     */
+    private static int shorten(int timeout, int limit) {
+        return timeout > 0 ? Math.min(timeout, limit) : limit;
+    }
+
+    private void closeIdleConnections() {
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        if (asyncConnectionManager != null) {
+            asyncConnectionManager.closeExpiredConnections();
+            asyncConnectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Creates SSL context for mutual authentication with the client security server
+     * @return SSL context or null if keystore or truststore is not configured
+     */
+    private SSLContext createSslContext() throws GeneralSecurityException, IOException {
+        final String keystorePath = environment.getProperty("xroad-monitor-collector-client.ssl-keystore");
+        final String truststorePath = environment.getProperty("xroad-monitor-collector-client.ssl-truststore");
+        File keystoreFile = new File(keystorePath);
+        File truststoreFile = new File(truststorePath);
+        if (keystoreFile.exists() && truststoreFile.exists()) {
+            final String keystorePassword =
+                environment.getProperty("xroad-monitor-collector-client.ssl-keystore-password");
+            final String truststorePassword =
+                environment.getProperty("xroad-monitor-collector-client.ssl-truststore-password");
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            try (FileInputStream keystoreStream = new FileInputStream(keystoreFile)) {
+                keyStore.load(keystoreStream, keystorePassword.toCharArray());
+            }
+            SSLContext sslContext = new SSLContextBuilder()
+                .loadKeyMaterial(keyStore, keystorePassword.toCharArray())
+                .loadTrustMaterial(truststoreFile, truststorePassword.toCharArray())
+                .build();
+            sslContext.getClientSessionContext().setSessionCacheSize(environment.getProperty(
+                MonitorCollectorPropertyKeys.SSL_SESSION_CACHE_SIZE, Integer.class,
+                MonitorCollectorConstants.DEFAULT_SSL_SESSION_CACHE_SIZE));
+            sslContext.getClientSessionContext().setSessionTimeout(environment.getProperty(
+                MonitorCollectorPropertyKeys.SSL_SESSION_TIMEOUT, Integer.class,
+                MonitorCollectorConstants.DEFAULT_SSL_SESSION_TIMEOUT));
+            return sslContext;
+        }
+        return null;
+    }
+
+    /**
+     * Closes the HTTP clients and their connection pools
+     */
+    @PreDestroy
+    public void shutdown() throws IOException {
+        idleConnectionEvictor.shutdownNow();
+        httpClient.close();
+        if (asyncClient != null) {
+            asyncClient.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.extractor;
+
+import org.elasticsearch.common.bytes.BytesReference;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.math.BigDecimal;
+
+/**
+ * Writes monitoring data JSON documents. Null values are left out like {@link org.json.JSONObject} does.
+ */
+public interface MonitorDataDocumentWriter {
+
+    /**
+     * Starts the root object or an object in an array
+     */
+    void startObject();
+
+    /**
+     * Starts an object field
+     * @param name field name
+     */
+    void startObject(String name);
+
+    /**
+     * Ends the current object
+     */
+    void endObject();
+
+    /**
+     * Starts an array field
+     * @param name field name
+     */
+    void startArray(String name);
+
+    /**
+     * Ends the current array
+     */
+    void endArray();
+
+    /**
+     * @param name field name
+     * @param value string value, or null to leave the field out
+     */
+    void field(String name, String value);
+
+    /**
+     * @param name field name
+     * @param value decimal value, or null to leave the field out
+     */
+    void field(String name, BigDecimal value);
+
+    /**
+     * @param name field name
+     * @param value timestamp value, or null to leave the field out
+     */
+    void field(String name, XMLGregorianCalendar value);
+
+    /**
+     * @param value string value in an array
+     */
+    void value(String value);
+
+    /**
+     * @return written document as UTF-8 JSON
+     */
+    BytesReference bytes();
+
+    /**
+     * Writes the document with a streaming writer, keyed metrics are written as they are
+     * @param content writes the document content
+     * @param <E> exception thrown by the content
+     * @return written document
+     */
+    static <E extends Exception> BytesReference write(DocumentContent<E> content) throws E {
+        return write(content, false);
+    }
+
+    /**
+     * Writes the document with a streaming writer. If the content has duplicate keys, which the streaming
+     * writer can not overwrite, the document is written again with {@link MonitorDataJsonObjectWriter}
+     * where the last value wins.
+     * @param content writes the document content
+     * @param keyedMetrics true if keyed metrics are normalized by {@link MonitorDataKeyedMetricWriter}
+     * @param <E> exception thrown by the content
+     * @return written document
+     */
+    static <E extends Exception> BytesReference write(DocumentContent<E> content, boolean keyedMetrics) throws E {
+        try {
+            MonitorDataJsonGeneratorWriter writer = new MonitorDataJsonGeneratorWriter();
+            content.writeTo(keyedMetrics ? new MonitorDataKeyedMetricWriter(writer) : writer);
+            return writer.bytes();
+        } catch (MonitorDataJsonGeneratorWriter.DuplicateKeyException e) {
+            MonitorDataJsonObjectWriter writer = new MonitorDataJsonObjectWriter();
+            content.writeTo(keyedMetrics ? new MonitorDataKeyedMetricWriter(writer) : writer);
+            return writer.bytes();
+        }
+    }
+
+    /**
+     * Content of a document, may be written more than once
+     * @param <E> exception thrown while writing
+     */
+    @FunctionalInterface
+    interface DocumentContent<E extends Exception> {
+        /**
+         * @param writer document writer
+         */
+        void writeTo(MonitorDataDocumentWriter writer) throws E;
+    }
+}
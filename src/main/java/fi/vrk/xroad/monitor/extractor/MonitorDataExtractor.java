@@ -25,30 +25,43 @@ package fi.vrk.xroad.monitor.extractor;
 import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
 import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
 import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.http.client.HttpClient;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.config.RequestConfig;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.http.client.ClientHttpRequestFactory;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
-import org.springframework.http.converter.StringHttpMessageConverter;
-import org.springframework.http.converter.xml.Jaxb2RootElementHttpMessageConverter;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.client.UnknownHttpStatusCodeException;
 
-import java.io.File;
-import java.io.FileInputStream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
-import java.security.*;
-import java.security.cert.CertificateException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 /**
  * Handler for extractor requestBuilder, responseParser and parsing
@@ -57,7 +70,8 @@ import java.security.cert.CertificateException;
 @Component
 public class MonitorDataExtractor {
 
-    private RestTemplate rt;
+    static final String RUN_DEADLINE_EXCEEDED = "Run deadline exceeded";
+    private static final ContentType TEXT_XML_UTF8 = ContentType.create("text/xml", StandardCharsets.UTF_8);
 
     @Autowired
     private Environment environment;
@@ -68,57 +82,191 @@ public class MonitorDataExtractor {
     @Autowired
     private MonitorDataResponseParser responseParser;
 
-    private void initRestTemplate() throws KeyStoreException, IOException, CertificateException,
-        NoSuchAlgorithmException, UnrecoverableKeyException, KeyManagementException {
-        final String keystorePath = environment.getProperty("xroad-monitor-collector-client.ssl-keystore");
-        final String truststorePath = environment.getProperty("xroad-monitor-collector-client.ssl-truststore");
-        File keystoreFile = new File(keystorePath);
-        File truststoreFile = new File(truststorePath);
-        if (keystoreFile.exists() && truststoreFile.exists()) {
-            final String keystorePassword =
-                environment.getProperty("xroad-monitor-collector-client.ssl-keystore-password");
-            final String truststorePassword =
-                environment.getProperty("xroad-monitor-collector-client.ssl-truststore-password");
-            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-            keyStore.load(new FileInputStream(new File(keystorePath)), keystorePassword.toCharArray());
-            SSLConnectionSocketFactory socketFactory = new SSLConnectionSocketFactory(
-                new SSLContextBuilder()
-                    .loadKeyMaterial(keyStore, keystorePassword.toCharArray())
-                    .loadTrustMaterial(truststoreFile, truststorePassword.toCharArray())
-                    .build(),
-                NoopHostnameVerifier.INSTANCE);
-            HttpClient httpClient = HttpClients.custom().setSSLSocketFactory(socketFactory)
-                .setDefaultRequestConfig(getRequestConfig()).build();
-            ClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
-            rt = new RestTemplate(requestFactory);
-        } else {
-            HttpClient httpClient = HttpClients.custom().setDefaultRequestConfig(getRequestConfig()).build();
-            ClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
-            rt = new RestTemplate(requestFactory);
+    @Autowired
+    private MonitorDataStreamingResponseParser streamingResponseParser;
+
+    @Autowired
+    private MonitorDataConnectionManager connectionManager;
+
+    private boolean streamingParserEnabled;
+    private boolean keyedMetrics;
+    private RequestHedging hedging;
+    @Getter
+    private RetryPolicy retryPolicy;
+    // times hedged requests and run deadlines of non-blocking requests, null with blocking requests
+    private ScheduledThreadPoolExecutor timer;
+
+    /**
+     * Selects the response parser and creates the timer for non-blocking requests
+     */
+    @PostConstruct
+    public void init() {
+        final String parser = environment.getProperty(MonitorCollectorPropertyKeys.RESPONSE_PARSER,
+            MonitorCollectorConstants.RESPONSE_PARSER_DOM);
+        if (!MonitorCollectorConstants.RESPONSE_PARSER_DOM.equals(parser)
+            && !MonitorCollectorConstants.RESPONSE_PARSER_STAX.equals(parser)) {
+            throw new IllegalArgumentException("Unknown response parser " + parser);
+        }
+        streamingParserEnabled = MonitorCollectorConstants.RESPONSE_PARSER_STAX.equals(parser);
+        keyedMetrics = environment.getProperty(MonitorCollectorPropertyKeys.KEYED_METRICS, Boolean.class, false);
+        log.info("Using {} response parser", parser);
+        hedging = RequestHedging.create(environment);
+        retryPolicy = RetryPolicy.create(environment);
+        log.info("Retrying failed requests {}", retryPolicy);
+        if (isAsyncEnabled()) {
+            timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "monitor-request-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.setRemoveOnCancelPolicy(true);
+            log.info("Hedging requests {}", hedging);
+        } else if (hedging.isEnabled()) {
+            log.warn("Requests are hedged only when non-blocking requests are enabled");
         }
-        rt.getMessageConverters().add(new Jaxb2RootElementHttpMessageConverter());
-        rt.getMessageConverters().add(new StringHttpMessageConverter());
     }
 
-    private RequestConfig getRequestConfig() {
-        RequestConfig result = RequestConfig.custom()
-            .setConnectionRequestTimeout(MonitorCollectorConstants.CONNECT_TIMEOUT)
-            .setConnectTimeout(MonitorCollectorConstants.CONNECT_TIMEOUT)
-            .setSocketTimeout(MonitorCollectorConstants.CONNECT_TIMEOUT)
-            .build();
-        return result;
+    /**
+     * Stops the timer
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * Will handle getting metric data from security server. Errors are returned in the result, this method
+     * does not throw.
+     *
+     * @param securityServerInfo information of securityserver what metric to get
+     * @return monitoring data or error of this request
+     */
+    public MonitorDataResult handleMonitorDataRequestAndResponse(SecurityServerInfo securityServerInfo) {
+        return handleMonitorDataRequestAndResponse(securityServerInfo, Long.MAX_VALUE);
     }
 
     /**
-     * Will handle getting metric data and saving it to elasticseach
+     * Will handle getting metric data from security server before the deadline of the collection run. The
+     * timeouts of the request are shortened to the time remaining until the deadline. Errors are returned in
+     * the result, this method does not throw.
      *
      * @param securityServerInfo information of securityserver what metric to get
+     * @param deadline deadline of the collection run in milliseconds
+     * @return monitoring data or error of this request
+     */
+    public MonitorDataResult handleMonitorDataRequestAndResponse(SecurityServerInfo securityServerInfo,
+                                                                 long deadline) {
+        final long startTime = System.nanoTime();
+        final long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            return MonitorDataResult.createError(securityServerInfo, RUN_DEADLINE_EXCEEDED, null, 0, 0);
+        }
+        String xmlResponse;
+        try {
+            xmlResponse = makeRequest(requestBuilder.getRequestBytes(securityServerInfo),
+                connectionManager.getRequestConfig(remaining));
+        } catch (RuntimeException e) {
+            return createRequestError(securityServerInfo, e, System.nanoTime() - startTime);
+        }
+        return parseResponse(securityServerInfo, xmlResponse, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Non-blocking variant of {@link #handleMonitorDataRequestAndResponse(SecurityServerInfo)}. The request is
+     * executed by the asynchronous HTTP client and the response is parsed with the given executor so that
+     * the I/O dispatcher threads are never used for parsing.
+     *
+     * @param securityServerInfo information of securityserver what metric to get
+     * @param parseExecutor executor for parsing the response
+     * @return future completing with monitoring data or error of this request, never completes exceptionally
+     */
+    public CompletableFuture<MonitorDataResult> handleMonitorDataRequestAndResponseAsync(
+        SecurityServerInfo securityServerInfo, Executor parseExecutor) {
+        return handleMonitorDataRequestAndResponseAsync(securityServerInfo, parseExecutor, Long.MAX_VALUE);
+    }
+
+    /**
+     * Non-blocking variant of {@link #handleMonitorDataRequestAndResponse(SecurityServerInfo, long)}. The
+     * request fails when the deadline of the collection run is reached, and it is hedged when hedging is
+     * enabled and the request takes longer than recent requests.
+     *
+     * @param securityServerInfo information of securityserver what metric to get
+     * @param parseExecutor executor for parsing the response
+     * @param deadline deadline of the collection run in milliseconds
+     * @return future completing with monitoring data or error of this request, never completes exceptionally
+     */
+    public CompletableFuture<MonitorDataResult> handleMonitorDataRequestAndResponseAsync(
+        SecurityServerInfo securityServerInfo, Executor parseExecutor, long deadline) {
+        final long startTime = System.nanoTime();
+        CompletableFuture<MonitorDataResult> result = new CompletableFuture<>();
+        final long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            result.complete(MonitorDataResult.createError(securityServerInfo, RUN_DEADLINE_EXCEEDED, null, 0, 0));
+            return result;
+        }
+        CompletableFuture<String> response = makeHedgedRequestAsync(securityServerInfo, remaining,
+            deadline != Long.MAX_VALUE);
+        response.whenComplete((xmlResponse, error) -> {
+            final long requestNanos = System.nanoTime() - startTime;
+            if (error != null) {
+                result.complete(createRequestError(securityServerInfo, error, requestNanos));
+                return;
+            }
+            hedging.record(requestNanos);
+            try {
+                parseExecutor.execute(() -> result.complete(parseResponse(securityServerInfo, xmlResponse,
+                    requestNanos)));
+            } catch (RuntimeException e) {
+                result.complete(createRequestError(securityServerInfo, e, requestNanos));
+            }
+        });
+        return result;
+    }
+
+    private MonitorDataResult parseResponse(SecurityServerInfo securityServerInfo, String xmlResponse,
+                                            long requestNanos) {
+        final long startTime = System.nanoTime();
+        try {
+            final String xroadInstance = environment.getProperty(MonitorCollectorPropertyKeys.INSTANCE);
+            BytesReference document = streamingParserEnabled
+                ? streamingResponseParser.getMetricDocument(xmlResponse, securityServerInfo, xroadInstance,
+                    keyedMetrics)
+                : responseParser.getMetricDocument(xmlResponse, securityServerInfo, xroadInstance, keyedMetrics);
+            return MonitorDataResult.createSuccess(securityServerInfo, document, requestNanos,
+                System.nanoTime() - startTime);
+        } catch (MonitorDataFaultException e) {
+            return MonitorDataResult.createError(securityServerInfo, e.getMessage(), e.getCause(), requestNanos,
+                System.nanoTime() - startTime);
+        } catch (RuntimeException e) {
+            return MonitorDataResult.createError(securityServerInfo, e.toString(), e, requestNanos,
+                System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Security server returns SOAP faults with error status, the fault is used as error description when
+     * the response body contains one
      */
-    public String handleMonitorDataRequestAndResponse(SecurityServerInfo securityServerInfo) throws
-        CertificateException, UnrecoverableKeyException, NoSuchAlgorithmException, KeyStoreException,
-        KeyManagementException, IOException {
-        return responseParser.getMetricInformation(makeRequest(requestBuilder.getRequestXML(securityServerInfo)),
-            securityServerInfo, environment.getProperty(MonitorCollectorPropertyKeys.INSTANCE));
+    private MonitorDataResult createRequestError(SecurityServerInfo securityServerInfo, Throwable error,
+                                                 long requestNanos) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+            ? error.getCause() : error;
+        String fault = cause instanceof RestClientResponseException
+            ? responseParser.getFaultDescription(((RestClientResponseException) cause).getResponseBodyAsString())
+            : null;
+        if (fault != null) {
+            return MonitorDataResult.createError(securityServerInfo, fault, null, requestNanos, 0);
+        }
+        return MonitorDataResult.createError(securityServerInfo, cause.toString(), cause, requestNanos, 0);
+    }
+
+    /**
+     * @return true if requests should be made with the non-blocking HTTP client
+     */
+    public boolean isAsyncEnabled() {
+        return environment.getProperty(MonitorCollectorPropertyKeys.ASYNC_REQUESTS, Boolean.class, false);
     }
 
     /**
@@ -135,24 +283,197 @@ public class MonitorDataExtractor {
      * @param xmlRequest to posted in body to securityserver
      * @return securityserver metric information response as xml string
      */
-    public String makeRequest(String xmlRequest) throws CertificateException, UnrecoverableKeyException,
-        NoSuchAlgorithmException, KeyStoreException, KeyManagementException, IOException {
-        if (rt == null) {
-            initRestTemplate();
+    public String makeRequest(String xmlRequest) {
+        return makeRequest(xmlRequest.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Makes request to get securityserver metric information
+     * @param xmlRequest UTF-8 encoded request to posted in body to securityserver
+     * @return securityserver metric information response as xml string
+     */
+    public String makeRequest(byte[] xmlRequest) {
+        return makeRequest(xmlRequest, connectionManager.getRequestConfig());
+    }
+
+    /**
+     * Makes request to get securityserver metric information. Error statuses and I/O errors are thrown as
+     * {@link RestClientResponseException} and {@link ResourceAccessException}.
+     * @param xmlRequest UTF-8 encoded request to posted in body to securityserver
+     * @param requestConfig timeouts of the request
+     * @return securityserver metric information response as xml string
+     */
+    public String makeRequest(byte[] xmlRequest, RequestConfig requestConfig) {
+        String clientUrl = environment.getProperty(MonitorCollectorPropertyKeys.CLIENT_URL);
+        HttpPost post = createPost(clientUrl, xmlRequest, requestConfig);
+        if (log.isDebugEnabled()) {
+            log.debug("posting soap request, clientUrl: {} request: {}", clientUrl,
+                new String(xmlRequest, StandardCharsets.UTF_8));
         }
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.TEXT_XML);
-        HttpEntity<String> entity = new HttpEntity<>(xmlRequest, headers);
-        String clientUrl = environment != null
-            ? environment.getProperty(MonitorCollectorPropertyKeys.CLIENT_URL) : null;
-        log.debug("posting soap request, clientUrl: {} request: {}", clientUrl, xmlRequest);
-        return rt.postForObject(clientUrl, entity, String.class);
+        try (CloseableHttpResponse response = connectionManager.getHttpClient().execute(post)) {
+            String body = response.getEntity() != null
+                ? EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8) : null;
+            if (response.getStatusLine().getStatusCode() >= HttpStatus.BAD_REQUEST.value()) {
+                throw createStatusCodeException(response, body);
+            }
+            return body;
+        } catch (IOException e) {
+            throw new ResourceAccessException("I/O error on POST request for \"" + clientUrl + "\": "
+                + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Makes non-blocking request to get securityserver metric information. Error statuses complete the future
+     * exceptionally with {@link RestClientResponseException}.
+     * @param xmlRequest UTF-8 encoded request to posted in body to securityserver
+     * @return future completing with the securityserver metric information response as xml string
+     */
+    public CompletableFuture<String> makeRequestAsync(byte[] xmlRequest) {
+        return makeRequestAsync(xmlRequest, connectionManager.getRequestConfig());
     }
 
     /**
-     * @return last error description string
+     * Makes non-blocking request to get securityserver metric information. Cancelling the returned future
+     * aborts the request.
+     * @param xmlRequest UTF-8 encoded request to posted in body to securityserver
+     * @param requestConfig timeouts of the request
+     * @return future completing with the securityserver metric information response as xml string
      */
-    public String getLastErrorDescription() {
-        return responseParser.getLastErrorDescription();
+    public CompletableFuture<String> makeRequestAsync(byte[] xmlRequest, RequestConfig requestConfig) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        try {
+            String clientUrl = environment.getProperty(MonitorCollectorPropertyKeys.CLIENT_URL);
+            HttpPost post = createPost(clientUrl, xmlRequest, requestConfig);
+            if (log.isDebugEnabled()) {
+                log.debug("posting async soap request, clientUrl: {} request: {}", clientUrl,
+                    new String(xmlRequest, StandardCharsets.UTF_8));
+            }
+            Future<HttpResponse> request = connectionManager.getAsyncClient().execute(post,
+                new FutureCallback<HttpResponse>() {
+                    @Override
+                    public void completed(HttpResponse response) {
+                        try {
+                            String body = response.getEntity() != null
+                                ? EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8) : null;
+                            if (response.getStatusLine().getStatusCode() >= HttpStatus.BAD_REQUEST.value()) {
+                                result.completeExceptionally(createStatusCodeException(response, body));
+                            } else {
+                                result.complete(body);
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            result.completeExceptionally(e);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        result.completeExceptionally(ex);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        result.cancel(false);
+                    }
+                });
+            // cancelling the result, for example when a hedged request has won, aborts the request
+            result.whenComplete((body, error) -> {
+                if (result.isCancelled()) {
+                    request.cancel(true);
+                }
+            });
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Sends the request and, when hedging is enabled, a second request for the same security server if the
+     * first one takes longer than recent requests. The first successful response is used and the other request
+     * is aborted. Fails when all sent requests have failed, or when the remaining time of the run is used up.
+     */
+    private CompletableFuture<String> makeHedgedRequestAsync(SecurityServerInfo securityServerInfo,
+                                                             long remaining, boolean deadline) {
+        final RequestConfig requestConfig = connectionManager.getRequestConfig(remaining);
+        final CompletableFuture<String> response = new CompletableFuture<>();
+        final List<CompletableFuture<String>> requests = new CopyOnWriteArrayList<>();
+        final AtomicInteger outstanding = new AtomicInteger(1);
+        final BiConsumer<String, Throwable> completion = (body, error) -> {
+            if (error == null) {
+                response.complete(body);
+            } else if (outstanding.decrementAndGet() == 0) {
+                response.completeExceptionally(error);
+            }
+        };
+        final CompletableFuture<String> first = makeRequestAsync(requestBuilder.getRequestBytes(securityServerInfo),
+            requestConfig);
+        requests.add(first);
+        first.whenComplete(completion);
+
+        final long hedgeDelay = hedging.getDelay();
+        final ScheduledFuture<?> hedge = hedgeDelay >= 0 && hedgeDelay < remaining
+            ? timer.schedule(() -> {
+                outstanding.incrementAndGet();
+                if (response.isDone()) {
+                    return;
+                }
+                log.info("Hedging request to {} after {} ms", securityServerInfo, hedgeDelay);
+                // a new request with its own message id
+                final CompletableFuture<String> second = makeRequestAsync(
+                    requestBuilder.getRequestBytes(securityServerInfo),
+                    connectionManager.getRequestConfig(remaining - hedgeDelay));
+                requests.add(second);
+                second.whenComplete(completion);
+            }, hedgeDelay, TimeUnit.MILLISECONDS)
+            : null;
+        final ScheduledFuture<?> timeout = deadline
+            ? timer.schedule(() -> response.completeExceptionally(new TimeoutException(RUN_DEADLINE_EXCEEDED)),
+                remaining, TimeUnit.MILLISECONDS)
+            : null;
+        response.whenComplete((body, error) -> {
+            if (hedge != null) {
+                hedge.cancel(false);
+            }
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            requests.forEach(request -> request.cancel(false));
+        });
+        return response;
+    }
+
+    private static HttpPost createPost(String clientUrl, byte[] xmlRequest, RequestConfig requestConfig) {
+        HttpPost post = new HttpPost(clientUrl);
+        post.setConfig(requestConfig);
+        post.setEntity(new ByteArrayEntity(xmlRequest, TEXT_XML_UTF8));
+        return post;
+    }
+
+    private static RestClientResponseException createStatusCodeException(HttpResponse response, String body) {
+        int code = response.getStatusLine().getStatusCode();
+        String reason = response.getStatusLine().getReasonPhrase();
+        byte[] bodyBytes = body != null ? body.getBytes(StandardCharsets.UTF_8) : null;
+        HttpStatus status = resolveStatus(code);
+        if (status == null) {
+            // proxies may answer with codes that HttpStatus does not know, keep the raw code and reason
+            return new UnknownHttpStatusCodeException(code, reason, null, bodyBytes, StandardCharsets.UTF_8);
+        }
+        if (status.is4xxClientError()) {
+            return new HttpClientErrorException(status, reason, bodyBytes, StandardCharsets.UTF_8);
+        }
+        return new HttpServerErrorException(status, reason, bodyBytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return status of the code, or null if the code is not a standard status
+     */
+    private static HttpStatus resolveStatus(int code) {
+        for (HttpStatus status : HttpStatus.values()) {
+            if (status.value() == code) {
+                return status;
+            }
+        }
+        return null;
     }
 }
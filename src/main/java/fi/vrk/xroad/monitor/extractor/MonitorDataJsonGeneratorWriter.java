@@ -0,0 +1,195 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.extractor;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.json.JSONObject;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Streams the document with Jackson straight into a paged byte buffer that can be indexed as is.
+ * Values are formatted the same way as {@link JSONObject} formats them. A written field can not be
+ * overwritten, so a duplicate key fails with {@link DuplicateKeyException}.
+ */
+class MonitorDataJsonGeneratorWriter implements MonitorDataDocumentWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final BytesStreamOutput output = new BytesStreamOutput();
+    private final JsonGenerator generator;
+    // keys of the open objects, arrays have an unused set
+    private final Deque<Set<String>> keys = new ArrayDeque<>();
+
+    MonitorDataJsonGeneratorWriter() {
+        try {
+            generator = JSON_FACTORY.createGenerator(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void startObject() {
+        try {
+            generator.writeStartObject();
+            keys.push(new HashSet<>());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void startObject(String name) {
+        writeFieldName(name);
+        startObject();
+    }
+
+    @Override
+    public void endObject() {
+        try {
+            generator.writeEndObject();
+            keys.pop();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void startArray(String name) {
+        writeFieldName(name);
+        try {
+            generator.writeStartArray();
+            keys.push(new HashSet<>());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void endArray() {
+        try {
+            generator.writeEndArray();
+            keys.pop();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void field(String name, String value) {
+        if (writeFieldName(name, value)) {
+            value(value);
+        }
+    }
+
+    @Override
+    public void field(String name, BigDecimal value) {
+        if (writeFieldName(name, value)) {
+            try {
+                generator.writeNumber(JSONObject.numberToString(value));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void field(String name, XMLGregorianCalendar value) {
+        if (writeFieldName(name, value)) {
+            value(value.toString());
+        }
+    }
+
+    @Override
+    public void value(String value) {
+        try {
+            generator.writeString(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public BytesReference bytes() {
+        try {
+            generator.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.bytes();
+    }
+
+    /**
+     * Writes the field name unless the value is null
+     * @return true if the value should be written
+     */
+    private boolean writeFieldName(String name, Object value) {
+        if (value == null) {
+            // JSONObject removes the field, which can not be done to an already written field
+            if (keys.peek().contains(requireName(name))) {
+                throw new DuplicateKeyException(name);
+            }
+            return false;
+        }
+        writeFieldName(name);
+        return true;
+    }
+
+    private void writeFieldName(String name) {
+        if (!keys.peek().add(requireName(name))) {
+            throw new DuplicateKeyException(name);
+        }
+        try {
+            generator.writeFieldName(name);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String requireName(String name) {
+        if (name == null) {
+            throw new NullPointerException("Null key.");
+        }
+        return name;
+    }
+
+    /**
+     * Thrown when a field is written twice to the same object
+     */
+    static class DuplicateKeyException extends RuntimeException {
+        DuplicateKeyException(String key) {
+            super("Duplicate key " + key);
+        }
+    }
+}
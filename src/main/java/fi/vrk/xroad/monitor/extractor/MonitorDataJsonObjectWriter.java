@@ -0,0 +1,107 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.extractor;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Builds the document as {@link JSONObject} before serializing it, a written field is overwritten by
+ * a later field with the same name
+ */
+class MonitorDataJsonObjectWriter implements MonitorDataDocumentWriter {
+
+    private final Deque<Object> containers = new ArrayDeque<>();
+    private JSONObject root;
+
+    @Override
+    public void startObject() {
+        JSONObject object = new JSONObject();
+        if (containers.isEmpty()) {
+            root = object;
+        } else {
+            ((JSONArray) containers.peek()).put(object);
+        }
+        containers.push(object);
+    }
+
+    @Override
+    public void startObject(String name) {
+        JSONObject object = new JSONObject();
+        currentObject().put(name, object);
+        containers.push(object);
+    }
+
+    @Override
+    public void endObject() {
+        containers.pop();
+    }
+
+    @Override
+    public void startArray(String name) {
+        JSONArray array = new JSONArray();
+        currentObject().put(name, array);
+        containers.push(array);
+    }
+
+    @Override
+    public void endArray() {
+        containers.pop();
+    }
+
+    @Override
+    public void field(String name, String value) {
+        currentObject().put(name, value);
+    }
+
+    @Override
+    public void field(String name, BigDecimal value) {
+        currentObject().put(name, value);
+    }
+
+    @Override
+    public void field(String name, XMLGregorianCalendar value) {
+        currentObject().put(name, value);
+    }
+
+    @Override
+    public void value(String value) {
+        ((JSONArray) containers.peek()).put(value);
+    }
+
+    @Override
+    public BytesReference bytes() {
+        return new BytesArray(root.toString());
+    }
+
+    private JSONObject currentObject() {
+        return (JSONObject) containers.peek();
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.extractor;
+
+import org.elasticsearch.common.bytes.BytesReference;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes keyed metrics of the root object, like {@code DiskSpaceFree_/var}, as an array of key and value
+ * objects under the metric name, {@code "DiskSpaceFree": [{"key": "/var", "value": 1024}]}. Every mount
+ * point would otherwise become a field of its own in the index mapping. Other content is written as is.
+ */
+class MonitorDataKeyedMetricWriter implements MonitorDataDocumentWriter {
+
+    static final List<String> KEYED_METRICS = Arrays.asList("DiskSpaceFree", "DiskSpaceTotal");
+
+    static final String KEY = "key";
+    static final String VALUE = "value";
+
+    private final MonitorDataDocumentWriter writer;
+    // keyed metric values of the root object by metric name and key, a later value replaces an earlier one
+    private final Map<String, Map<String, Object>> keyedMetrics = new LinkedHashMap<>();
+    private int depth;
+
+    MonitorDataKeyedMetricWriter(MonitorDataDocumentWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void startObject() {
+        depth++;
+        writer.startObject();
+    }
+
+    @Override
+    public void startObject(String name) {
+        depth++;
+        writer.startObject(name);
+    }
+
+    @Override
+    public void endObject() {
+        if (depth == 1) {
+            writeKeyedMetrics();
+        }
+        depth--;
+        writer.endObject();
+    }
+
+    @Override
+    public void startArray(String name) {
+        depth++;
+        writer.startArray(name);
+    }
+
+    @Override
+    public void endArray() {
+        depth--;
+        writer.endArray();
+    }
+
+    @Override
+    public void field(String name, String value) {
+        if (!keyedField(name, value)) {
+            writer.field(name, value);
+        }
+    }
+
+    @Override
+    public void field(String name, BigDecimal value) {
+        if (!keyedField(name, value)) {
+            writer.field(name, value);
+        }
+    }
+
+    @Override
+    public void field(String name, XMLGregorianCalendar value) {
+        writer.field(name, value);
+    }
+
+    @Override
+    public void value(String value) {
+        writer.value(value);
+    }
+
+    @Override
+    public BytesReference bytes() {
+        return writer.bytes();
+    }
+
+    /**
+     * Keeps the value of a keyed metric of the root object until the root object ends
+     * @return true if the field is a keyed metric
+     */
+    private boolean keyedField(String name, Object value) {
+        if (depth != 1 || name == null) {
+            return false;
+        }
+        final int separator = name.indexOf('_');
+        if (separator < 0 || !KEYED_METRICS.contains(name.substring(0, separator))) {
+            return false;
+        }
+        final Map<String, Object> values = keyedMetrics.computeIfAbsent(name.substring(0, separator),
+            metric -> new LinkedHashMap<>());
+        final String key = name.substring(separator + 1);
+        if (value == null) {
+            // a null value removes the field
+            values.remove(key);
+        } else {
+            values.put(key, value);
+        }
+        return true;
+    }
+
+    private void writeKeyedMetrics() {
+        for (Map.Entry<String, Map<String, Object>> metric : keyedMetrics.entrySet()) {
+            if (metric.getValue().isEmpty()) {
+                continue;
+            }
+            writer.startArray(metric.getKey());
+            for (Map.Entry<String, Object> keyed : metric.getValue().entrySet()) {
+                writer.startObject();
+                writer.field(KEY, keyed.getKey());
+                if (keyed.getValue() instanceof BigDecimal) {
+                    writer.field(VALUE, (BigDecimal) keyed.getValue());
+                } else {
+                    writer.field(VALUE, (String) keyed.getValue());
+                }
+                writer.endObject();
+            }
+            writer.endArray();
+        }
+        keyedMetrics.clear();
+    }
+}
@@ -40,8 +40,14 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Creates extractor request xml.
@@ -50,12 +56,22 @@ import java.util.UUID;
 @Component
 public class MonitorDataRequestBuilder {
 
+    private static final long UUID_VERSION_MASK = 0xf000L;
+    private static final long UUID_VERSION_4 = 0x4000L;
+    private static final long UUID_VARIANT_MASK = 0xc000000000000000L;
+    private static final long UUID_VARIANT_IETF = 0x8000000000000000L;
+
     private final String instance;
     private final String clientMemberClass;
     private final String clientMemberCode;
     private final String clientSubsystemCode;
     private final String[] queryParameters;
 
+    // request template split at the placeholders, literals[i] is followed by placeholders[i]
+    private final byte[][] literals;
+    private final Placeholder[] placeholders;
+    private final int literalsLength;
+
     /**
      * Constructor
      * @param environment
@@ -66,6 +82,22 @@ public class MonitorDataRequestBuilder {
         clientMemberCode = environment.getProperty(MonitorCollectorPropertyKeys.CLIENT_MEMBER_CODE);
         clientSubsystemCode = environment.getProperty(MonitorCollectorPropertyKeys.CLIENT_SUBSYSTEM);
         queryParameters = environment.getProperty(MonitorCollectorPropertyKeys.QUERY_PARAMETERS).split(",");
+
+        // the envelope is built once, only the security server information and the id change per request
+        final String template = getTemplateXML();
+        List<byte[]> templateLiterals = new ArrayList<>();
+        List<Placeholder> templatePlaceholders = new ArrayList<>();
+        Matcher matcher = Placeholder.PATTERN.matcher(template);
+        int position = 0;
+        while (matcher.find()) {
+            templateLiterals.add(template.substring(position, matcher.start()).getBytes(StandardCharsets.UTF_8));
+            templatePlaceholders.add(Placeholder.valueOf(matcher.group(1)));
+            position = matcher.end();
+        }
+        templateLiterals.add(template.substring(position).getBytes(StandardCharsets.UTF_8));
+        literals = templateLiterals.toArray(new byte[templateLiterals.size()][]);
+        placeholders = templatePlaceholders.toArray(new Placeholder[templatePlaceholders.size()]);
+        literalsLength = templateLiterals.stream().mapToInt(literal -> literal.length).sum();
     }
 
     /**
@@ -75,7 +107,46 @@ public class MonitorDataRequestBuilder {
      * @return xml string request
      */
     public String getRequestXML(SecurityServerInfo serverInfo) {
+        return new String(getRequestBytes(serverInfo), StandardCharsets.UTF_8);
+    }
 
+    /**
+     * Makes UTF-8 encoded request for securityserver monitoring metrics by patching the security server
+     * information and a new message id into the precompiled request template
+     *
+     * @param serverInfo server information what is target of request
+     * @return UTF-8 encoded xml request
+     */
+    public byte[] getRequestBytes(SecurityServerInfo serverInfo) {
+        final byte[][] values = new byte[Placeholder.values().length][];
+        values[Placeholder.MEMBER_CLASS.ordinal()] = escape(serverInfo.getMemberClass());
+        values[Placeholder.MEMBER_CODE.ordinal()] = escape(serverInfo.getMemberCode());
+        values[Placeholder.SERVER_CODE.ordinal()] = escape(serverInfo.getServerCode());
+        values[Placeholder.ID.ordinal()] = createId().getBytes(StandardCharsets.US_ASCII);
+
+        int length = literalsLength;
+        for (Placeholder placeholder : placeholders) {
+            length += values[placeholder.ordinal()].length;
+        }
+        byte[] request = new byte[length];
+        int position = 0;
+        for (int i = 0; i < placeholders.length; i++) {
+            System.arraycopy(literals[i], 0, request, position, literals[i].length);
+            position += literals[i].length;
+            byte[] value = values[placeholders[i].ordinal()];
+            System.arraycopy(value, 0, request, position, value.length);
+            position += value.length;
+        }
+        System.arraycopy(literals[placeholders.length], 0, request, position, literals[placeholders.length].length);
+        return request;
+    }
+
+    /**
+     * Creates the request xml with placeholders for the per request values
+     *
+     * @return xml string request template
+     */
+    private String getTemplateXML() {
         DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
         DocumentBuilder documentBuilder = null;
 
@@ -112,8 +183,8 @@ public class MonitorDataRequestBuilder {
 
         service.setAttribute("id:objectType", "SERVICE");
         service.appendChild(createElementWithValue(document, "id:xRoadInstance", instance));
-        service.appendChild(createElementWithValue(document, "id:memberClass", serverInfo.getMemberClass()));
-        service.appendChild(createElementWithValue(document, "id:memberCode", serverInfo.getMemberCode()));
+        service.appendChild(createElementWithValue(document, "id:memberClass", Placeholder.MEMBER_CLASS.token));
+        service.appendChild(createElementWithValue(document, "id:memberCode", Placeholder.MEMBER_CODE.token));
         service.appendChild(createElementWithValue(document, "id:serviceCode", "getSecurityServerMetrics"));
 
         Element securityServerElement = document.createElement("xrd:securityServer");
@@ -122,16 +193,16 @@ public class MonitorDataRequestBuilder {
         securityServerElement.setAttribute("id:objectType", "SERVER");
         securityServerElement.appendChild(createElementWithValue(document, "id:xRoadInstance", instance));
         securityServerElement.appendChild(
-                createElementWithValue(document, "id:memberClass", serverInfo.getMemberClass())
+                createElementWithValue(document, "id:memberClass", Placeholder.MEMBER_CLASS.token)
         );
         securityServerElement.appendChild(
-                createElementWithValue(document, "id:memberCode", serverInfo.getMemberCode())
+                createElementWithValue(document, "id:memberCode", Placeholder.MEMBER_CODE.token)
         );
         securityServerElement.appendChild(
-                createElementWithValue(document, "id:serverCode", serverInfo.getServerCode())
+                createElementWithValue(document, "id:serverCode", Placeholder.SERVER_CODE.token)
         );
 
-        headerElement.appendChild(createElementWithValue(document, "xrd:id", UUID.randomUUID().toString()));
+        headerElement.appendChild(createElementWithValue(document, "xrd:id", Placeholder.ID.token));
         headerElement.appendChild(createElementWithValue(document, "xrd:protocolVersion", "4.0"));
 
         Element bodyElement = document.createElement("SOAP-ENV:Body");
@@ -198,4 +269,45 @@ public class MonitorDataRequestBuilder {
         }
     }
 
+    /**
+     * Escapes xml text content
+     *
+     * @param value text
+     * @return UTF-8 encoded escaped text
+     */
+    private static byte[] escape(String value) {
+        if (value == null) {
+            return new byte[0];
+        }
+        String escaped = value;
+        if (value.indexOf('&') >= 0 || value.indexOf('<') >= 0 || value.indexOf('>') >= 0) {
+            escaped = value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        }
+        return escaped.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates random (version 4) UUID for the message id. {@link UUID#randomUUID()} uses a shared
+     * {@link java.security.SecureRandom}, the id does not need to be unpredictable so thread local random is
+     * used instead.
+     *
+     * @return message id
+     */
+    static String createId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSigBits = (random.nextLong() & ~UUID_VERSION_MASK) | UUID_VERSION_4;
+        long leastSigBits = (random.nextLong() & ~UUID_VARIANT_MASK) | UUID_VARIANT_IETF;
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+
+    /**
+     * Per request values in the request template
+     */
+    private enum Placeholder {
+        MEMBER_CLASS, MEMBER_CODE, SERVER_CODE, ID;
+
+        private static final Pattern PATTERN = Pattern.compile("@@(MEMBER_CLASS|MEMBER_CODE|SERVER_CODE|ID)@@");
+
+        private final String token = "@@" + name() + "@@";
+    }
 }
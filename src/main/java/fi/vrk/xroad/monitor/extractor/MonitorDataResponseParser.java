@@ -24,8 +24,8 @@ package fi.vrk.xroad.monitor.extractor;
 
 import ee.ria.xroad.proxymonitor.message.*;
 import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
-import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.json.JSONObject;
 import org.springframework.stereotype.Component;
 import org.w3c.dom.Document;
@@ -40,18 +40,13 @@ import javax.xml.bind.Unmarshaller;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 import java.io.IOException;
 import java.io.StringReader;
-import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.List;
 
+import static fi.vrk.xroad.monitor.util.MonitorCollectorDataUtils.getServerName;
+
 /**
  * Handles responseParser and returns only body
  */
@@ -59,46 +54,96 @@ import java.util.List;
 @Component
 public class MonitorDataResponseParser {
 
-    @Getter
-    private String lastErrorDescription;
+    private static final List<String> LISTED_METRIC_SETS =
+        Arrays.asList("Processes", "Xroad Processes", "Certificates", "Packages");
+
+    // creating the JAXB context is expensive, it is thread-safe and shared by all parsers
+    private static final JAXBContext JAXB_CONTEXT = createJaxbContext();
+
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = createDocumentBuilderFactory();
+
+    // unmarshallers and document builders are not thread-safe, each thread reuses its own
+    private static final ThreadLocal<Unmarshaller> UNMARSHALLER = ThreadLocal.withInitial(() -> {
+        try {
+            return JAXB_CONTEXT.createUnmarshaller();
+        } catch (JAXBException e) {
+            throw new IllegalStateException("Failed to create unmarshaller", e);
+        }
+    });
+
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = ThreadLocal.withInitial(() -> {
+        try {
+            return DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("Failed to create document builder", e);
+        }
+    });
 
     /**
      * Parse metric information from xml response string and return json data
      * @param xmlResponse xml string what is gotten from securityserver
-     * @return metric data in xml string, or null in case of fault
+     * @return metric data in json string
+     * @throws MonitorDataFaultException if the response is a SOAP fault or can not be parsed
      */
     public String getMetricInformation(String xmlResponse, SecurityServerInfo securityServerInfo,
                                        String xroadInstance) {
-        lastErrorDescription = "";
+        return getMetricDocument(xmlResponse, securityServerInfo, xroadInstance).utf8ToString();
+    }
+
+    /**
+     * Parse metric information from xml response string and return json document ready for indexing
+     * @param xmlResponse xml string what is gotten from securityserver
+     * @return metric data as UTF-8 json
+     * @throws MonitorDataFaultException if the response is a SOAP fault or can not be parsed
+     */
+    public BytesReference getMetricDocument(String xmlResponse, SecurityServerInfo securityServerInfo,
+                                            String xroadInstance) {
+        return getMetricDocument(xmlResponse, securityServerInfo, xroadInstance, false);
+    }
 
+    /**
+     * Parse metric information from xml response string and return json document ready for indexing
+     * @param xmlResponse xml string what is gotten from securityserver
+     * @param keyedMetrics true if keyed metrics are written as arrays of key and value objects
+     * @return metric data as UTF-8 json
+     * @throws MonitorDataFaultException if the response is a SOAP fault or can not be parsed
+     */
+    public BytesReference getMetricDocument(String xmlResponse, SecurityServerInfo securityServerInfo,
+                                            String xroadInstance, boolean keyedMetrics) {
         Document root = parseResponseDocument(xmlResponse);
-        String resultString = null;
-
-        if (root != null) {
-            root.normalizeDocument();
-
-            NodeList nodeList = root.getElementsByTagName("m:getSecurityServerMetricsResponse");
-            if (nodeList.getLength() == 0) {
-                NodeList faultCode = root.getElementsByTagName("faultcode");
-                NodeList faultString = root.getElementsByTagName("faultstring");
-                log.debug("Faultcode in responseParser: {} faultstring: {} responseParser: {}",
-                        nodeToString(faultCode.item(0)), nodeToString(faultString.item(0)), xmlResponse);
-                lastErrorDescription = String.format("%s %s", nodeToString(faultCode.item(0)),
-                    nodeToString(faultString.item(0)));
-            } else {
-                try {
-                    Unmarshaller jaxbUnmarshaller =
-                            JAXBContext.newInstance(GetSecurityServerMetricsResponse.class).createUnmarshaller();
-                    GetSecurityServerMetricsResponse responseObject
-                            = (GetSecurityServerMetricsResponse) jaxbUnmarshaller.unmarshal(nodeList.item(0));
-                    resultString = getFormattedJSONObject(responseObject, securityServerInfo, xroadInstance).toString();
-                } catch (JAXBException e) {
-                    log.error("Failed unmarshalling XML to POJO", e);
-                }
-            }
-            return resultString;
+        if (root == null) {
+            throw new MonitorDataFaultException("Failed to parse response document");
+        }
+        root.normalizeDocument();
+
+        NodeList nodeList = root.getElementsByTagName("m:getSecurityServerMetricsResponse");
+        if (nodeList.getLength() == 0) {
+            String fault = getFaultDescription(root);
+            log.debug("Fault in responseParser: {} responseParser: {}", fault, xmlResponse);
+            throw new MonitorDataFaultException(fault);
+        }
+        try {
+            GetSecurityServerMetricsResponse responseObject
+                    = (GetSecurityServerMetricsResponse) UNMARSHALLER.get().unmarshal(nodeList.item(0));
+            return MonitorDataDocumentWriter.write(
+                writer -> writeDocument(writer, responseObject, securityServerInfo, xroadInstance), keyedMetrics);
+        } catch (JAXBException e) {
+            log.error("Failed unmarshalling XML to POJO", e);
+            throw new MonitorDataFaultException("Failed unmarshalling XML to POJO", e);
         }
-        return null;
+    }
+
+    /**
+     * Parse SOAP fault from xml string, for example from the body of an HTTP error response
+     * @param xml xml string
+     * @return fault code and fault string, or null if the string is not a SOAP fault
+     */
+    public String getFaultDescription(String xml) {
+        Document root = xml != null ? parseResponseDocument(xml) : null;
+        if (root == null || root.getElementsByTagName("faultcode").getLength() == 0) {
+            return null;
+        }
+        return getFaultDescription(root);
     }
 
     /**
@@ -113,102 +158,96 @@ public class MonitorDataResponseParser {
         json.put("memberCode", info.getMemberCode());
         json.put("memberClass", info.getMemberClass());
         json.put("xroadInstance", xroadInstance);
-        json.put("name", String.format("SERVER:%s/%s/%s/%s", xroadInstance, info.getMemberClass(),
-            info.getMemberCode(), info.getServerCode()));
+        json.put("name", getServerName(info, xroadInstance));
         return json.toString();
     }
 
     /**
-     * Function for formating JSON object to more usable form
+     * Function for writing the response object in more usable form
+     * @param writer document writer
      * @param responseObject response object to be formated
      * @param securityServerInfo information of security server
      * @param xroadInstance xroadInstance identifier
-     * @return formated JSON object
      */
-    private JSONObject getFormattedJSONObject(GetSecurityServerMetricsResponse responseObject,
-                                              SecurityServerInfo securityServerInfo, String xroadInstance) {
-        JSONObject json = new JSONObject();
-        json.put("serverCode", securityServerInfo.getServerCode());
-        json.put("memberCode", securityServerInfo.getMemberCode());
-        json.put("memberClass", securityServerInfo.getMemberClass());
-        json.put("xroadInstance", xroadInstance);
+    private void writeDocument(MonitorDataDocumentWriter writer, GetSecurityServerMetricsResponse responseObject,
+                               SecurityServerInfo securityServerInfo, String xroadInstance) {
+        writer.startObject();
+        writer.field("serverCode", securityServerInfo.getServerCode());
+        writer.field("memberCode", securityServerInfo.getMemberCode());
+        writer.field("memberClass", securityServerInfo.getMemberClass());
+        writer.field("xroadInstance", xroadInstance);
 
         MetricSetType rootMetric = responseObject.getMetricSet();
-        json.put("name", rootMetric.getName());
-
-        List<MetricType> metricList = rootMetric.getMetrics();
+        writer.field("name", rootMetric.getName());
 
-        return makeJSONObject(json, metricList);
+        writeMetrics(writer, rootMetric.getMetrics());
+        writer.endObject();
     }
 
     /**
-     * Function what will create wanted json object
-     * @param json object to formated
-     * @param metricList rest of object not to formated
-     * @return formated json
+     * Function what will write the metrics to the current object. Nested metric sets are flattened into
+     * the same object except for the listed ones.
+     * @param writer document writer
+     * @param metricList metrics to write
      */
-    private JSONObject makeJSONObject(JSONObject json, List<MetricType> metricList) {
+    private void writeMetrics(MonitorDataDocumentWriter writer, List<MetricType> metricList) {
         for (MetricType metricType : metricList) {
             if (metricType instanceof HistogramMetricType) {
-                json.put(metricType.getName(), createHistogramJson((HistogramMetricType) metricType));
+                writeHistogram(writer, (HistogramMetricType) metricType);
             } else if (metricType instanceof NumericMetricType) {
-                json.put(metricType.getName(), ((NumericMetricType) metricType).getValue());
+                writer.field(metricType.getName(), ((NumericMetricType) metricType).getValue());
             } else if (metricType instanceof StringMetricType) {
-                json.put(metricType.getName(), ((StringMetricType) metricType).getValue());
+                writer.field(metricType.getName(), ((StringMetricType) metricType).getValue());
             } else if (metricType instanceof MetricSetType) {
                 List<MetricType> subList = ((MetricSetType) metricType).getMetrics();
-                if (Arrays.asList("Processes", "Xroad Processes", "Certificates", "Packages")
-                        .contains(metricType.getName())) {
-                    json.put(metricType.getName(), subList.stream().map(m -> {
+                if (LISTED_METRIC_SETS.contains(metricType.getName())) {
+                    writer.startArray(metricType.getName());
+                    for (MetricType m : subList) {
                         if (m instanceof StringMetricType) {
-                            return m.getName() + " " + ((StringMetricType) m).getValue();
+                            writer.value(m.getName() + " " + ((StringMetricType) m).getValue());
                         } else {
-                            return makeJSONObject(new JSONObject(), ((MetricSetType) m).getMetrics());
+                            writer.startObject();
+                            writeMetrics(writer, ((MetricSetType) m).getMetrics());
+                            writer.endObject();
                         }
-                    }).toArray());
+                    }
+                    writer.endArray();
                 } else {
-                    json = makeJSONObject(json, subList);
+                    writeMetrics(writer, subList);
                 }
             }
         }
-        return json;
     }
 
     /**
-     * Helper method to create histogram json object
-     * @param metric HistogramMetricType
-     * @return histogram json object
+     * Helper method to write histogram json object
+     * @param writer document writer
+     * @param histogram HistogramMetricType
      */
-    private JSONObject createHistogramJson(HistogramMetricType metric) {
-        HistogramMetricType histogram = (HistogramMetricType) metric;
-        JSONObject histogramJson = new JSONObject();
-        histogramJson.put("updated", histogram.getUpdated());
-        histogramJson.put("min", histogram.getMin());
-        histogramJson.put("max", histogram.getMax());
-        histogramJson.put("mean", histogram.getMean());
-        histogramJson.put("median", histogram.getMedian());
-        histogramJson.put("stddev", histogram.getStddev());
-        return histogramJson;
+    private void writeHistogram(MonitorDataDocumentWriter writer, HistogramMetricType histogram) {
+        writer.startObject(histogram.getName());
+        writer.field("updated", histogram.getUpdated());
+        writer.field("min", histogram.getMin());
+        writer.field("max", histogram.getMax());
+        writer.field("mean", histogram.getMean());
+        writer.field("median", histogram.getMedian());
+        writer.field("stddev", histogram.getStddev());
+        writer.endObject();
     }
 
     /**
-     * Parse xml node to string
+     * Format SOAP fault code and string as plain text
      *
-     * @param item xml node
-     * @return xml string
+     * @param root xml document
+     * @return fault description
      */
-    private String nodeToString(Node item) {
-        try {
-            StringWriter writer = new StringWriter();
-            StreamResult result = new StreamResult(writer);
-            Transformer t = TransformerFactory.newInstance().newTransformer();
-            t.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-            t.transform(new DOMSource(item), result);
-            return writer.toString();
-        } catch (TransformerException e) {
-            log.error("Failed to parse string from metric node: {}", e);
-            return "";
-        }
+    private String getFaultDescription(Document root) {
+        return String.format("%s %s", getTextContent(root.getElementsByTagName("faultcode").item(0)),
+            getTextContent(root.getElementsByTagName("faultstring").item(0))).trim();
+    }
+
+    private static String getTextContent(Node item) {
+        return item != null ? item.getTextContent().trim() : "";
     }
 
     /**
@@ -219,15 +258,29 @@ public class MonitorDataResponseParser {
      */
     private Document parseResponseDocument(String response) {
 
+        DocumentBuilder builder = DOCUMENT_BUILDER.get();
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            DocumentBuilder builder = factory.newDocumentBuilder();
             InputSource is = new InputSource(new StringReader(response));
             return builder.parse(is);
-        } catch (ParserConfigurationException | IOException | SAXException e) {
+        } catch (IOException | SAXException e) {
             log.error("Failed to parse responseParser document from string: {}", e);
             return null;
+        } finally {
+            builder.reset();
+        }
+    }
+
+    private static JAXBContext createJaxbContext() {
+        try {
+            return JAXBContext.newInstance(GetSecurityServerMetricsResponse.class);
+        } catch (JAXBException e) {
+            throw new IllegalStateException("Failed to create JAXB context", e);
         }
     }
+
+    private static DocumentBuilderFactory createDocumentBuilderFactory() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory;
+    }
 }
@@ -0,0 +1,132 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.extractor;
+
+import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Immutable outcome of a single monitoring data request. Contains either the monitoring data document or
+ * a description of the error, and the time spent on the request and on parsing the response.
+ */
+@Getter
+@ToString(exclude = "document")
+public final class MonitorDataResult {
+
+    private final SecurityServerInfo securityServerInfo;
+    private final BytesReference document;
+    private final String errorDescription;
+    private final Throwable cause;
+    private final long requestNanos;
+    private final long parseNanos;
+
+    private MonitorDataResult(SecurityServerInfo securityServerInfo, BytesReference document,
+                              String errorDescription, Throwable cause, long requestNanos, long parseNanos) {
+        this.securityServerInfo = securityServerInfo;
+        this.document = document;
+        this.errorDescription = errorDescription;
+        this.cause = cause;
+        this.requestNanos = requestNanos;
+        this.parseNanos = parseNanos;
+    }
+
+    /**
+     * @param securityServerInfo security server the data was requested from
+     * @param document monitoring data as UTF-8 JSON
+     * @param requestNanos time spent waiting for the response
+     * @param parseNanos time spent parsing the response
+     * @return successful result
+     */
+    public static MonitorDataResult createSuccess(SecurityServerInfo securityServerInfo, BytesReference document,
+                                                  long requestNanos, long parseNanos) {
+        return new MonitorDataResult(securityServerInfo, document, null, null, requestNanos, parseNanos);
+    }
+
+    /**
+     * @param securityServerInfo security server the data was requested from
+     * @param errorDescription description of the error, SOAP fault code and string for faults
+     * @param cause exception causing the error, or null for SOAP faults
+     * @param requestNanos time spent waiting for the response
+     * @param parseNanos time spent parsing the response
+     * @return failed result
+     */
+    public static MonitorDataResult createError(SecurityServerInfo securityServerInfo, String errorDescription,
+                                                Throwable cause, long requestNanos, long parseNanos) {
+        return new MonitorDataResult(securityServerInfo, null, errorDescription, cause, requestNanos,
+            parseNanos);
+    }
+
+    /**
+     * @return true if monitoring data was received
+     */
+    public boolean isSuccess() {
+        return document != null;
+    }
+
+    /**
+     * Tells if the request failed because the client security server or the connection pool could not keep up
+     * with the requests, as opposed to a fault of the target security server. Timeouts, including waiting for
+     * a pooled connection, and too many requests or service unavailable statuses are counted as overload.
+     * @return true if the request failed because of overload
+     */
+    public boolean isOverload() {
+        for (Throwable e = cause; e != null; e = e.getCause()) {
+            if (e instanceof HttpStatusCodeException) {
+                final HttpStatus status = ((HttpStatusCodeException) e).getStatusCode();
+                return status == HttpStatus.TOO_MANY_REQUESTS || status == HttpStatus.SERVICE_UNAVAILABLE;
+            }
+            // connection pool timeouts of the blocking client are connect timeouts
+            if (e instanceof SocketTimeoutException || e instanceof ConnectTimeoutException) {
+                return true;
+            }
+            // the non-blocking client fails with a timeout when no pooled connection is leased in time, the end
+            // of the collection run is not overload
+            if (e instanceof TimeoutException) {
+                return !MonitorDataExtractor.RUN_DEADLINE_EXCEEDED.equals(e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the request was not sent because the deadline of the collection run had passed
+     */
+    public boolean isSkipped() {
+        return cause == null && MonitorDataExtractor.RUN_DEADLINE_EXCEEDED.equals(errorDescription);
+    }
+
+    /**
+     * @return monitoring data as JSON string, or null in case of error
+     */
+    public String getJson() {
+        return document != null ? document.utf8ToString() : null;
+    }
+}
@@ -0,0 +1,314 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.extractor;
+
+import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.springframework.stereotype.Component;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming alternative to {@link MonitorDataResponseParser}. Reads the response with StAX and writes the
+ * JSON in a single pass without DOM and JAXB, the output is the same as with {@link MonitorDataResponseParser}.
+ */
+@Slf4j
+@Component
+public class MonitorDataStreamingResponseParser {
+
+    private static final String RESPONSE_ELEMENT = "getSecurityServerMetricsResponse";
+    private static final String METRIC_SET = "metricSet";
+    private static final String STRING_METRIC = "stringMetric";
+    private static final String NUMERIC_METRIC = "numericMetric";
+    private static final String HISTOGRAM_METRIC = "histogramMetric";
+    private static final String NAME = "name";
+    private static final String VALUE = "value";
+    private static final List<String> HISTOGRAM_FIELDS = Arrays.asList("min", "max", "mean", "median", "stddev");
+    private static final List<String> LISTED_METRIC_SETS =
+        Arrays.asList("Processes", "Xroad Processes", "Certificates", "Packages");
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+    private static final DatatypeFactory DATATYPE_FACTORY = createDatatypeFactory();
+
+    /**
+     * Parse metric information from xml response string and return json data
+     * @param xmlResponse xml string what is gotten from securityserver
+     * @param securityServerInfo information of security server
+     * @param xroadInstance xroadInstance identifier
+     * @return metric data in json string
+     * @throws MonitorDataFaultException if the response is a SOAP fault or can not be parsed
+     */
+    public String getMetricInformation(String xmlResponse, SecurityServerInfo securityServerInfo,
+                                       String xroadInstance) {
+        return getMetricDocument(xmlResponse, securityServerInfo, xroadInstance).utf8ToString();
+    }
+
+    /**
+     * Parse metric information from xml response string and return json document ready for indexing
+     * @param xmlResponse xml string what is gotten from securityserver
+     * @param securityServerInfo information of security server
+     * @param xroadInstance xroadInstance identifier
+     * @return metric data as UTF-8 json
+     * @throws MonitorDataFaultException if the response is a SOAP fault or can not be parsed
+     */
+    public BytesReference getMetricDocument(String xmlResponse, SecurityServerInfo securityServerInfo,
+                                            String xroadInstance) {
+        return getMetricDocument(xmlResponse, securityServerInfo, xroadInstance, false);
+    }
+
+    /**
+     * Parse metric information from xml response string and return json document ready for indexing
+     * @param xmlResponse xml string what is gotten from securityserver
+     * @param securityServerInfo information of security server
+     * @param xroadInstance xroadInstance identifier
+     * @param keyedMetrics true if keyed metrics are written as arrays of key and value objects
+     * @return metric data as UTF-8 json
+     * @throws MonitorDataFaultException if the response is a SOAP fault or can not be parsed
+     */
+    public BytesReference getMetricDocument(String xmlResponse, SecurityServerInfo securityServerInfo,
+                                            String xroadInstance, boolean keyedMetrics) {
+        try {
+            return MonitorDataDocumentWriter.write(
+                writer -> writeDocument(writer, xmlResponse, securityServerInfo, xroadInstance), keyedMetrics);
+        } catch (XMLStreamException e) {
+            log.error("Failed to parse responseParser document from string: {}", e);
+            throw new MonitorDataFaultException("Failed to parse response document", e);
+        }
+    }
+
+    private void writeDocument(MonitorDataDocumentWriter writer, String xmlResponse,
+                               SecurityServerInfo securityServerInfo, String xroadInstance)
+        throws XMLStreamException {
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(xmlResponse));
+            String faultCode = "";
+            String faultString = "";
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                switch (reader.getLocalName()) {
+                    case RESPONSE_ELEMENT:
+                        writeResponse(reader, writer, securityServerInfo, xroadInstance);
+                        return;
+                    case "faultcode":
+                        faultCode = reader.getElementText().trim();
+                        break;
+                    case "faultstring":
+                        faultString = reader.getElementText().trim();
+                        break;
+                    default:
+                        break;
+                }
+            }
+            String fault = String.format("%s %s", faultCode, faultString).trim();
+            log.debug("Fault in responseParser: {} responseParser: {}", fault, xmlResponse);
+            throw new MonitorDataFaultException(fault);
+        } finally {
+            close(reader);
+        }
+    }
+
+    /**
+     * Writes the root metric set of the response, positioned at the response element
+     */
+    private void writeResponse(XMLStreamReader reader, MonitorDataDocumentWriter writer,
+                               SecurityServerInfo securityServerInfo, String xroadInstance)
+        throws XMLStreamException {
+        writer.startObject();
+        writer.field("serverCode", securityServerInfo.getServerCode());
+        writer.field("memberCode", securityServerInfo.getMemberCode());
+        writer.field("memberClass", securityServerInfo.getMemberClass());
+        writer.field("xroadInstance", xroadInstance);
+
+        reader.nextTag();
+        requireElement(reader, METRIC_SET);
+        writer.field(NAME, readName(reader));
+        writeMetrics(reader, writer);
+        writer.endObject();
+    }
+
+    /**
+     * Writes metrics of a metric set to the current object the same way as
+     * {@link MonitorDataResponseParser} does, positioned after the name of the metric set.
+     * Nested metric sets are flattened into the same object except for the listed ones.
+     */
+    private void writeMetrics(XMLStreamReader reader, MonitorDataDocumentWriter writer)
+        throws XMLStreamException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case METRIC_SET:
+                    String name = readName(reader);
+                    if (LISTED_METRIC_SETS.contains(name)) {
+                        writer.startArray(name);
+                        writeListedMetrics(reader, writer);
+                        writer.endArray();
+                    } else {
+                        writeMetrics(reader, writer);
+                    }
+                    break;
+                case STRING_METRIC:
+                    Map<String, String> stringMetric = readFields(reader);
+                    writer.field(stringMetric.get(NAME), stringMetric.get(VALUE));
+                    break;
+                case NUMERIC_METRIC:
+                    Map<String, String> numericMetric = readFields(reader);
+                    writer.field(numericMetric.get(NAME), parseDecimal(numericMetric.get(VALUE)));
+                    break;
+                case HISTOGRAM_METRIC:
+                    writeHistogram(writer, readFields(reader));
+                    break;
+                default:
+                    throw new MonitorDataFaultException("Unexpected metric element " + reader.getLocalName());
+            }
+        }
+    }
+
+    /**
+     * Listed metric sets are arrays, string metrics become "name value" strings and metric sets objects
+     */
+    private void writeListedMetrics(XMLStreamReader reader, MonitorDataDocumentWriter writer)
+        throws XMLStreamException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case STRING_METRIC:
+                    Map<String, String> stringMetric = readFields(reader);
+                    writer.value(stringMetric.get(NAME) + " " + stringMetric.get(VALUE));
+                    break;
+                case METRIC_SET:
+                    readName(reader);
+                    writer.startObject();
+                    writeMetrics(reader, writer);
+                    writer.endObject();
+                    break;
+                default:
+                    throw new MonitorDataFaultException("Unexpected metric element " + reader.getLocalName()
+                        + " in listed metric set");
+            }
+        }
+    }
+
+    private void writeHistogram(MonitorDataDocumentWriter writer, Map<String, String> fields) {
+        writer.startObject(fields.get(NAME));
+        writer.field("updated", parseDateTime(fields.get("updated")));
+        for (String field : HISTOGRAM_FIELDS) {
+            writer.field(field, parseDecimal(fields.get(field)));
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Reads the text of the child elements of a metric, positioned at the metric element
+     */
+    private static Map<String, String> readFields(XMLStreamReader reader) throws XMLStreamException {
+        Map<String, String> fields = new HashMap<>();
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            fields.put(reader.getLocalName(), reader.getElementText());
+        }
+        return fields;
+    }
+
+    /**
+     * Reads the name of a metric set, positioned at the metric set element
+     */
+    private static String readName(XMLStreamReader reader) throws XMLStreamException {
+        reader.nextTag();
+        requireElement(reader, NAME);
+        return reader.getElementText();
+    }
+
+    private static void requireElement(XMLStreamReader reader, String localName) {
+        if (!reader.isStartElement() || !localName.equals(reader.getLocalName())) {
+            throw new MonitorDataFaultException("Expected element " + localName);
+        }
+    }
+
+    /**
+     * Parses xs:decimal like JAXB does, invalid values are left out
+     */
+    private static BigDecimal parseDecimal(String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        try {
+            return new BigDecimal(trimmed.startsWith("+") ? trimmed.substring(1) : trimmed);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses xs:dateTime like JAXB does, invalid values are left out
+     */
+    private static XMLGregorianCalendar parseDateTime(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return DATATYPE_FACTORY.newXMLGregorianCalendar(value.trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void close(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                log.debug("Failed to close stream reader", e);
+            }
+        }
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return factory;
+    }
+
+    private static DatatypeFactory createDatatypeFactory() {
+        try {
+            return DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException e) {
+            throw new IllegalStateException("Failed to create datatype factory", e);
+        }
+    }
+}
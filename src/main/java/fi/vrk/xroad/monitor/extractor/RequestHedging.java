@@ -0,0 +1,122 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.extractor;
+
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import org.springframework.core.env.Environment;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a monitoring data request is hedged, that is when a second request is sent for the same
+ * security server and the first response is used. A request is hedged when it has taken longer than the
+ * configured percentile of recent successful requests, but never before the minimum delay.
+ */
+public final class RequestHedging {
+
+    private static final int WINDOW = 1000;
+    private static final int MIN_SAMPLES = 20;
+    // the percentile is computed again after this many new samples
+    private static final int RECOMPUTE_INTERVAL = 10;
+    private static final double PERCENT = 100.0;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final long minDelay;
+
+    private final long[] latencies = new long[WINDOW];
+    private int samples;
+    private int next;
+    private int samplesSinceRecompute;
+    private long delay = -1;
+
+    RequestHedging(boolean enabled, double percentile, long minDelay) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+    }
+
+    /**
+     * Create hedging policy configured with xroad-monitor-collector-client.hedge properties
+     * @param environment
+     * @return hedging policy
+     * @throws IllegalArgumentException if the percentile is not between 0 and 100
+     */
+    public static RequestHedging create(Environment environment) {
+        final boolean enabled = environment.getProperty(MonitorCollectorPropertyKeys.HEDGE_ENABLED, Boolean.class,
+            false);
+        final double percentile = environment.getProperty(MonitorCollectorPropertyKeys.HEDGE_PERCENTILE,
+            Double.class, MonitorCollectorConstants.DEFAULT_HEDGE_PERCENTILE);
+        if (percentile <= 0 || percentile >= PERCENT) {
+            throw new IllegalArgumentException("Invalid hedge percentile " + percentile);
+        }
+        final long minDelay = environment.getProperty(MonitorCollectorPropertyKeys.HEDGE_MIN_DELAY, Long.class,
+            MonitorCollectorConstants.DEFAULT_HEDGE_MIN_DELAY);
+        return new RequestHedging(enabled, percentile, minDelay);
+    }
+
+    /**
+     * @return true if requests are hedged
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records the latency of a successful request
+     * @param latencyNanos
+     */
+    public synchronized void record(long latencyNanos) {
+        if (!enabled) {
+            return;
+        }
+        latencies[next] = latencyNanos;
+        next = (next + 1) % WINDOW;
+        samples = Math.min(samples + 1, WINDOW);
+        samplesSinceRecompute++;
+    }
+
+    /**
+     * @return milliseconds after which a request is hedged, or -1 if requests are not hedged yet
+     */
+    public synchronized long getDelay() {
+        if (!enabled || samples < MIN_SAMPLES) {
+            return -1;
+        }
+        if (delay < 0 || samplesSinceRecompute >= RECOMPUTE_INTERVAL) {
+            final long[] sorted = Arrays.copyOf(latencies, samples);
+            Arrays.sort(sorted);
+            final int index = (int) Math.ceil(percentile / PERCENT * samples) - 1;
+            delay = Math.max(minDelay, TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]));
+            samplesSinceRecompute = 0;
+        }
+        return delay;
+    }
+
+    @Override
+    public String toString() {
+        return enabled ? "after p" + percentile + " latency, at least " + minDelay + " ms" : "disabled";
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.extractor;
+
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Decides whether a failed monitoring data request is attempted again and after how long. Only transient
+ * failures are retried: I/O errors such as connection resets and timeouts, overload statuses and SOAP faults
+ * with a configured fault code, for example a network error reported by a security server. Other failures,
+ * such as unknown hosts, TLS errors and unparseable responses, fail the same way again.
+ *
+ * The delay doubles with every attempt up to the maximum, and is shortened randomly by the jitter so that
+ * requests failing together are not retried together.
+ */
+public final class RetryPolicy {
+
+    private static final Set<HttpStatus> RETRYABLE_STATUSES = Collections.unmodifiableSet(EnumSet.of(
+        HttpStatus.TOO_MANY_REQUESTS, HttpStatus.BAD_GATEWAY, HttpStatus.SERVICE_UNAVAILABLE,
+        HttpStatus.GATEWAY_TIMEOUT));
+
+    private final int maxAttempts;
+    private final long initialDelay;
+    private final long maxDelay;
+    private final double jitter;
+    private final List<String> faultCodes;
+    private final Random random;
+
+    RetryPolicy(int maxAttempts, long initialDelay, long maxDelay, double jitter, List<String> faultCodes,
+                Random random) {
+        this.maxAttempts = maxAttempts;
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.jitter = jitter;
+        this.faultCodes = faultCodes;
+        this.random = random;
+    }
+
+    /**
+     * Create retry policy configured with xroad-monitor-collector-client.retry properties
+     * @param environment
+     * @return retry policy
+     * @throws IllegalArgumentException if the attempts, delays or jitter are out of range
+     */
+    public static RetryPolicy create(Environment environment) {
+        final int maxAttempts = environment.getProperty(MonitorCollectorPropertyKeys.RETRY_MAX_ATTEMPTS,
+            Integer.class, MonitorCollectorConstants.DEFAULT_RETRY_MAX_ATTEMPTS);
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Invalid retry max attempts " + maxAttempts);
+        }
+        final long initialDelay = environment.getProperty(MonitorCollectorPropertyKeys.RETRY_INITIAL_DELAY,
+            Long.class, MonitorCollectorConstants.DEFAULT_RETRY_INITIAL_DELAY);
+        final long maxDelay = environment.getProperty(MonitorCollectorPropertyKeys.RETRY_MAX_DELAY, Long.class,
+            MonitorCollectorConstants.DEFAULT_RETRY_MAX_DELAY);
+        if (initialDelay < 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Invalid retry delays " + initialDelay + " and " + maxDelay);
+        }
+        final double jitter = environment.getProperty(MonitorCollectorPropertyKeys.RETRY_JITTER, Double.class,
+            MonitorCollectorConstants.DEFAULT_RETRY_JITTER);
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Invalid retry jitter " + jitter);
+        }
+        final List<String> faultCodes = Arrays.stream(environment.getProperty(
+            MonitorCollectorPropertyKeys.RETRY_FAULT_CODES, MonitorCollectorConstants.DEFAULT_RETRY_FAULT_CODES)
+            .split(","))
+            .map(String::trim)
+            .filter(code -> !code.isEmpty())
+            .collect(Collectors.toList());
+        return new RetryPolicy(maxAttempts, initialDelay, maxDelay, jitter, faultCodes, new Random());
+    }
+
+    /**
+     * @return true if failed requests are attempted again
+     */
+    public boolean isEnabled() {
+        return maxAttempts > 1;
+    }
+
+    /**
+     * @param result result of a request
+     * @return true if the request failed for a reason that may not repeat
+     */
+    public boolean isRetryable(MonitorDataResult result) {
+        if (result.isSuccess()) {
+            return false;
+        }
+        if (result.getCause() == null) {
+            // SOAP faults are described by fault code and fault string
+            final String description = result.getErrorDescription();
+            final String faultCode = description != null ? description.split(" ", 2)[0] : "";
+            return faultCodes.stream().anyMatch(faultCode::contains);
+        }
+        for (Throwable cause = result.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpStatusCodeException) {
+                return RETRYABLE_STATUSES.contains(((HttpStatusCodeException) cause).getStatusCode());
+            }
+            if (cause instanceof UnknownHostException || cause instanceof SSLException) {
+                return false;
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param result result of a request
+     * @param attempt number of the attempt that gave the result, starting from 1
+     * @return milliseconds after which the request is attempted again, or -1 if it is not retried
+     */
+    public long getDelay(MonitorDataResult result, int attempt) {
+        if (attempt >= maxAttempts || !isRetryable(result)) {
+            return -1;
+        }
+        long delay = initialDelay;
+        for (int i = 1; i < attempt && delay < maxDelay; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelay);
+        return delay - (long) (delay * jitter * random.nextDouble());
+    }
+
+    @Override
+    public String toString() {
+        return isEnabled() ? "up to " + maxAttempts + " attempts, delay " + initialDelay + " to " + maxDelay
+            + " ms" : "disabled";
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.history;
+
+import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Circuit breaker per security server, so that security servers failing in every run do not take request
+ * slots until their requests time out. The circuit of a security server opens when its latest requests have
+ * all failed. While open, the default data is saved without a request, until one request is sent again as a
+ * probe after the probe interval. A successful probe closes the circuit, a failed one keeps it open for
+ * another interval.
+ *
+ * The outcomes of the requests are taken from the latency history, so that open circuits are remembered
+ * across runs and restarts.
+ */
+@Slf4j
+@Component
+public class CircuitBreaker {
+
+  @Autowired
+  private Environment environment;
+
+  @Autowired
+  private LatencyHistory latencyHistory;
+
+  private boolean enabled;
+  private int failureThreshold;
+  private long probeInterval;
+
+  /**
+   * Reads configuration
+   */
+  @PostConstruct
+  public void init() {
+    enabled = environment.getProperty(MonitorCollectorPropertyKeys.CIRCUIT_BREAKER_ENABLED, Boolean.class, false);
+    failureThreshold = environment.getProperty(MonitorCollectorPropertyKeys.CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+        Integer.class, MonitorCollectorConstants.DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD);
+    probeInterval = environment.getProperty(MonitorCollectorPropertyKeys.CIRCUIT_BREAKER_PROBE_INTERVAL,
+        Long.class, MonitorCollectorConstants.DEFAULT_CIRCUIT_BREAKER_PROBE_INTERVAL);
+    if (failureThreshold < 1) {
+      throw new IllegalArgumentException("Circuit breaker failure threshold must be positive, was "
+          + failureThreshold);
+    }
+    if (enabled && !environment.getProperty(MonitorCollectorPropertyKeys.LATENCY_HISTORY_ENABLED, Boolean.class,
+        true)) {
+      log.warn("Circuit breaker requires the latency history, circuits are never opened");
+    }
+    if (enabled) {
+      log.info("Circuit breaker opens after {} failed requests and probes every {} ms", failureThreshold,
+          probeInterval);
+    }
+  }
+
+  /**
+   * Tells if the request of a security server should be skipped
+   * @param info security server
+   * @param now current time in milliseconds
+   * @return true if the circuit of the security server is open and it is not yet time for a probe
+   */
+  public boolean isOpen(SecurityServerInfo info, long now) {
+    return enabled && latencyHistory.isFailing(info, failureThreshold, now - probeInterval);
+  }
+}
@@ -0,0 +1,233 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.history;
+
+import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency and outcome of monitoring data requests per security server across collection runs, used to send
+ * the requests of slow and unreliable security servers first so that they overlap with the fast ones.
+ *
+ * The history is kept in memory and saved after each run to a file of {@code magic, version, count} followed
+ * by {@code key, latency, failure rate, samples, last seen, consecutive failures} for each security server.
+ * Latency and failure rate are exponentially weighted moving averages. Security servers not seen for a month
+ * are dropped.
+ */
+@Slf4j
+@Component
+public class LatencyHistory {
+
+  private static final int MAGIC = 0x4c415459;
+  private static final byte VERSION = 2;
+  // history saved before consecutive failures were recorded
+  private static final byte VERSION_1 = 1;
+  private static final double WEIGHT = 0.3;
+  private static final long MAX_AGE = TimeUnit.DAYS.toMillis(30);
+
+  @Autowired
+  private Environment environment;
+
+  private boolean enabled;
+  private Path file;
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  /**
+   * Reads configuration and loads the history saved by earlier runs
+   */
+  @PostConstruct
+  public void init() {
+    enabled = environment.getProperty(MonitorCollectorPropertyKeys.LATENCY_HISTORY_ENABLED, Boolean.class, true);
+    if (!enabled) {
+      return;
+    }
+    final String instance = environment.getProperty(MonitorCollectorPropertyKeys.INSTANCE);
+    // instances collected by the same process keep their history in separate files
+    file = Paths.get(environment.getProperty(MonitorCollectorPropertyKeys.LATENCY_HISTORY_DIRECTORY,
+        MonitorCollectorConstants.DEFAULT_LATENCY_HISTORY_DIRECTORY),
+        instance != null ? "latency-history-" + instance + ".dat" : "latency-history.dat");
+    try {
+      load();
+      log.info("Loaded latency history of {} security servers from {}", entries.size(), file);
+    } catch (NoSuchFileException e) {
+      log.info("No latency history in {}", file);
+    } catch (IOException e) {
+      // the history only affects the order of requests, collection continues without it
+      log.warn("Failed to load latency history from {}", file, e);
+      entries.clear();
+    }
+  }
+
+  /**
+   * Records the outcome of a monitoring data request
+   * @param info security server
+   * @param latencyNanos time of the request in nanoseconds
+   * @param success true if monitoring data was received
+   */
+  public synchronized void record(SecurityServerInfo info, long latencyNanos, boolean success) {
+    if (!enabled) {
+      return;
+    }
+    final float latencyMillis = latencyNanos / (float) TimeUnit.MILLISECONDS.toNanos(1);
+    final float failure = success ? 0 : 1;
+    final Entry entry = entries.get(getKey(info));
+    if (entry == null) {
+      entries.put(getKey(info), new Entry(latencyMillis, failure, 1, System.currentTimeMillis(), success ? 0 : 1));
+    } else {
+      entry.latency += WEIGHT * (latencyMillis - entry.latency);
+      entry.failureRate += WEIGHT * (failure - entry.failureRate);
+      entry.samples++;
+      entry.lastSeen = System.currentTimeMillis();
+      entry.consecutiveFailures = success ? 0 : entry.consecutiveFailures + 1;
+    }
+  }
+
+  /**
+   * Tells if the latest requests of a security server have all failed
+   * @param info security server
+   * @param failures number of latest requests
+   * @param since time in milliseconds the latest request must have been completed after
+   * @return true if at least the given number of latest requests have failed and the latest completed after since
+   */
+  public synchronized boolean isFailing(SecurityServerInfo info, int failures, long since) {
+    final Entry entry = entries.get(getKey(info));
+    return entry != null && entry.consecutiveFailures >= failures && entry.lastSeen > since;
+  }
+
+  /**
+   * Orders security servers longest expected request first. The expected time of a request is its average
+   * latency weighted up by its failure rate. Security servers without history are ordered first, as their
+   * requests may be the slowest.
+   * @param infos security servers
+   * @return security servers in the order their requests should be sent
+   */
+  public synchronized List<SecurityServerInfo> order(Collection<SecurityServerInfo> infos) {
+    final List<SecurityServerInfo> result = new ArrayList<>(infos);
+    if (enabled) {
+      final Map<SecurityServerInfo, Double> costs = new HashMap<>();
+      for (SecurityServerInfo info : infos) {
+        final Entry entry = entries.get(getKey(info));
+        costs.put(info, entry != null ? entry.latency * (1.0 + entry.failureRate) : Double.MAX_VALUE);
+      }
+      result.sort(Comparator.comparing(costs::get, Comparator.reverseOrder()));
+    }
+    return result;
+  }
+
+  /**
+   * Saves the history, replacing the previous file at once so that a crash never leaves a partial file
+   */
+  public synchronized void save() {
+    if (!enabled) {
+      return;
+    }
+    final long now = System.currentTimeMillis();
+    entries.values().removeIf(entry -> now - entry.lastSeen > MAX_AGE);
+    try {
+      Files.createDirectories(file.toAbsolutePath().getParent());
+      final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeFloat(entry.getValue().latency);
+          out.writeFloat(entry.getValue().failureRate);
+          out.writeInt(entry.getValue().samples);
+          out.writeLong(entry.getValue().lastSeen);
+          out.writeInt(entry.getValue().consecutiveFailures);
+        }
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      log.debug("Saved latency history of {} security servers to {}", entries.size(), file);
+    } catch (IOException e) {
+      log.warn("Failed to save latency history to {}", file, e);
+    }
+  }
+
+  private void load() throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Unknown latency history format");
+      }
+      final byte version = in.readByte();
+      if (version != VERSION && version != VERSION_1) {
+        throw new IOException("Unknown latency history version " + version);
+      }
+      final int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        final String key = in.readUTF();
+        entries.put(key, new Entry(in.readFloat(), in.readFloat(), in.readInt(), in.readLong(),
+            version != VERSION_1 ? in.readInt() : 0));
+      }
+    }
+  }
+
+  private static String getKey(SecurityServerInfo info) {
+    return info.getMemberClass() + "/" + info.getMemberCode() + "/" + info.getServerCode();
+  }
+
+  /**
+   * History of one security server
+   */
+  private static final class Entry {
+    private float latency;
+    private float failureRate;
+    private int samples;
+    private long lastSeen;
+    private int consecutiveFailures;
+
+    private Entry(float latency, float failureRate, int samples, long lastSeen, int consecutiveFailures) {
+      this.latency = latency;
+      this.failureRate = failureRate;
+      this.samples = samples;
+      this.lastSeen = lastSeen;
+      this.consecutiveFailures = consecutiveFailures;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.limiter;
+
+import lombok.ToString;
+
+/**
+ * Additive increase, multiplicative decrease limiter.
+ *
+ * The limit doubles every window of successful requests until the first decrease (slow start) and grows
+ * by one per window after that. It is multiplied by the backoff ratio when a request fails because of
+ * overload or when the short term latency average rises above the long term average times the latency
+ * tolerance, which means that requests have started to queue in the client security server. Other failures
+ * are faults of the target security server, they neither raise nor lower the limit. The limit is decreased
+ * at most once per window so that a burst of failures does not collapse it to the minimum.
+ */
+@ToString
+public class AimdConcurrencyLimiter implements ConcurrencyLimiter {
+
+    private static final double SHORT_LATENCY_WEIGHT = 0.1;
+    private static final double LONG_LATENCY_WEIGHT = 0.01;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+
+    private double limit;
+    private boolean slowStart = true;
+    private int samplesSinceDecrease;
+    private double shortLatency;
+    private double longLatency;
+
+    /**
+     * Constructor
+     * @param initialLimit limit to start with
+     * @param minLimit lower bound of the limit
+     * @param maxLimit upper bound of the limit
+     * @param backoffRatio multiplier applied to the limit on decrease, between 0 and 1
+     * @param latencyTolerance allowed ratio of short and long term latency averages
+     */
+    public AimdConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio,
+                                  double latencyTolerance) {
+        if (minLimit < 1 || maxLimit < minLimit || backoffRatio <= 0 || backoffRatio >= 1 || latencyTolerance < 1) {
+            throw new IllegalArgumentException("Invalid concurrency limiter configuration");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = Math.min(maxLimit, Math.max(minLimit, initialLimit));
+        this.samplesSinceDecrease = maxLimit;
+    }
+
+    @Override
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    @Override
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    @Override
+    public void onSample(long latencyNanos, boolean success, boolean overload) {
+        if (!success && !overload) {
+            return;
+        }
+        samplesSinceDecrease++;
+        if (success) {
+            updateLatency(latencyNanos);
+        }
+        if (!success || isQueueing()) {
+            if (samplesSinceDecrease >= limit) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                slowStart = false;
+                samplesSinceDecrease = 0;
+            }
+        } else if (slowStart) {
+            limit = Math.min(maxLimit, limit + 1);
+        } else {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    private void updateLatency(long latencyNanos) {
+        if (longLatency == 0) {
+            shortLatency = latencyNanos;
+            longLatency = latencyNanos;
+        } else {
+            shortLatency += SHORT_LATENCY_WEIGHT * (latencyNanos - shortLatency);
+            longLatency += LONG_LATENCY_WEIGHT * (latencyNanos - longLatency);
+        }
+    }
+
+    private boolean isQueueing() {
+        return longLatency > 0 && shortLatency > longLatency * latencyTolerance;
+    }
+}
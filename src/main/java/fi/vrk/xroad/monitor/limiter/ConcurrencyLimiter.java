@@ -0,0 +1,49 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.limiter;
+
+/**
+ * Limits the number of monitoring data requests in flight. Implementations are not thread safe,
+ * they are meant to be used by a single actor.
+ */
+public interface ConcurrencyLimiter {
+
+    /**
+     * @return current number of requests allowed to be in flight
+     */
+    int getLimit();
+
+    /**
+     * @return upper bound of {@link #getLimit()}
+     */
+    int getMaxLimit();
+
+    /**
+     * Updates the limit with the outcome of a finished request
+     * @param latencyNanos request latency in nanoseconds
+     * @param success true if the request succeeded
+     * @param overload true if the request failed because the client security server or the connection pool
+     *                 could not keep up, a failure of the target security server alone does not change the limit
+     */
+    void onSample(long latencyNanos, boolean success, boolean overload);
+}
@@ -0,0 +1,65 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.limiter;
+
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import org.springframework.core.env.Environment;
+
+/**
+ * Creates concurrency limiters from configuration
+ */
+public final class ConcurrencyLimiters {
+
+    public static final String FIXED = "fixed";
+
+    public static final String AIMD = "aimd";
+
+    /**
+     * Create limiter configured with xroad-monitor-collector.concurrency properties
+     * @param environment
+     * @return new limiter
+     */
+    public static ConcurrencyLimiter create(Environment environment) {
+        final String type = environment.getProperty(MonitorCollectorPropertyKeys.CONCURRENCY_LIMITER, FIXED);
+        final int initialLimit = environment.getProperty(MonitorCollectorPropertyKeys.CONCURRENCY_INITIAL_LIMIT,
+            Integer.class, MonitorCollectorConstants.DEFAULT_CONCURRENCY_LIMIT);
+        switch (type) {
+            case FIXED:
+                return new FixedConcurrencyLimiter(initialLimit);
+            case AIMD:
+                return new AimdConcurrencyLimiter(initialLimit,
+                    environment.getProperty(MonitorCollectorPropertyKeys.CONCURRENCY_MIN_LIMIT, Integer.class, 1),
+                    environment.getProperty(MonitorCollectorPropertyKeys.CONCURRENCY_MAX_LIMIT, Integer.class,
+                        MonitorCollectorConstants.DEFAULT_MAX_CONCURRENCY_LIMIT),
+                    environment.getProperty(MonitorCollectorPropertyKeys.CONCURRENCY_BACKOFF_RATIO, Double.class,
+                        MonitorCollectorConstants.DEFAULT_CONCURRENCY_BACKOFF_RATIO),
+                    environment.getProperty(MonitorCollectorPropertyKeys.CONCURRENCY_LATENCY_TOLERANCE, Double.class,
+                        MonitorCollectorConstants.DEFAULT_CONCURRENCY_LATENCY_TOLERANCE));
+            default:
+                throw new IllegalArgumentException("Unknown concurrency limiter: " + type);
+        }
+    }
+
+    private ConcurrencyLimiters() { }
+}
@@ -23,6 +23,7 @@
 
 package fi.vrk.xroad.monitor.parser;
 
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
@@ -36,9 +37,24 @@ import org.xml.sax.SAXException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -48,15 +64,21 @@ import java.util.Set;
 @Component
 public class SharedParamsParser {
 
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+    private static final List<String> SECURITY_SERVER_FIELDS = Arrays.asList("owner", "serverCode", "address");
 
     @Autowired
     private Environment environment;
 
+    // result of the last parse, returned as is while the content of the file does not change
+    private volatile ParseResult lastResult;
+
     /**
      * Parses security server information from X-Road global configuration shared-params.xml.
      * Matches member elements with securityServer elements to gather the information.
+     * The file is parsed again only when its content has changed, otherwise the previous result is returned.
      *
-     * @return list of {@link SecurityServerInfo} objects
+     * @return unmodifiable set of {@link SecurityServerInfo} objects
      * @throws ParserConfigurationException
      * @throws IOException
      * @throws SAXException
@@ -64,7 +86,130 @@ public class SharedParamsParser {
     public Set<SecurityServerInfo> parse() throws ParserConfigurationException, IOException, SAXException {
 
         String xFile = environment.getProperty("xroad-monitor-collector.shared-params-file");
-        File inputFile = new File(xFile);
+        byte[] content = Files.readAllBytes(new File(xFile).toPath());
+        byte[] hash = hash(content);
+        ParseResult result = lastResult;
+        if (result != null && Arrays.equals(result.hash, hash)) {
+            log.debug("Global configuration has not changed");
+            return result.securityServerInfos;
+        }
+        try (InputStream in = new ByteArrayInputStream(content)) {
+            Set<SecurityServerInfo> securityServerInfos = Collections.unmodifiableSet(parse(in));
+            lastResult = new ParseResult(hash, securityServerInfos);
+            return securityServerInfos;
+        }
+    }
+
+    /**
+     * Parses shared-params.xml in a single pass. Members are indexed by id and security server owners are
+     * resolved from the index, so members may also come after the security servers.
+     *
+     * @param in shared-params.xml content
+     * @return set of {@link SecurityServerInfo} objects
+     * @throws IOException if the content can not be parsed
+     */
+    Set<SecurityServerInfo> parse(InputStream in) throws IOException {
+        Map<String, Member> members = new HashMap<>();
+        List<String[]> securityServers = new ArrayList<>();
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                if ("member".equals(reader.getLocalName())) {
+                    String id = reader.getAttributeValue(null, "id");
+                    // the first member with an id is used like in a document order search
+                    members.putIfAbsent(id != null ? id : "", readMember(reader));
+                } else if ("securityServer".equals(reader.getLocalName())) {
+                    securityServers.add(readSecurityServer(reader));
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse global configuration", e);
+        } finally {
+            close(reader);
+        }
+
+        Set<SecurityServerInfo> securityServerInfos = new HashSet<>();
+        for (String[] securityServer : securityServers) {
+            Member owner = members.get(securityServer[0]);
+            if (owner != null) {
+                SecurityServerInfo info = new SecurityServerInfo(securityServer[1], securityServer[2],
+                    owner.memberClass, owner.memberCode);
+                log.debug("SecurityServerInfo: {}", info);
+                securityServerInfos.add(info);
+            }
+        }
+        log.debug("Result set: {}", securityServerInfos);
+        return securityServerInfos;
+    }
+
+    /**
+     * Reads the first member class code and member code of a member, positioned at the member element
+     */
+    private static Member readMember(XMLStreamReader reader) throws XMLStreamException {
+        String memberClass = null;
+        String memberCode = null;
+        boolean inMemberClass = false;
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if ("memberClass".equals(name) && memberClass == null) {
+                    inMemberClass = true;
+                    depth++;
+                } else if ("code".equals(name) && inMemberClass && memberClass == null) {
+                    memberClass = reader.getElementText();
+                } else if ("memberCode".equals(name) && memberCode == null) {
+                    memberCode = reader.getElementText();
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if ("memberClass".equals(reader.getLocalName())) {
+                    inMemberClass = false;
+                }
+                depth--;
+            }
+        }
+        return new Member(memberClass, memberCode);
+    }
+
+    /**
+     * Reads the first owner, server code and address of a security server, positioned at the security
+     * server element
+     */
+    private static String[] readSecurityServer(XMLStreamReader reader) throws XMLStreamException {
+        String[] fields = new String[SECURITY_SERVER_FIELDS.size()];
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                int index = SECURITY_SERVER_FIELDS.indexOf(reader.getLocalName());
+                if (index >= 0 && fields[index] == null) {
+                    fields[index] = reader.getElementText();
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Parses shared-params.xml into a DOM and searches the owner of each security server from all members.
+     * Kept as the reference for the single pass parser.
+     *
+     * @param inputFile shared-params.xml
+     * @return set of {@link SecurityServerInfo} objects
+     */
+    static Set<SecurityServerInfo> parseDocument(File inputFile)
+        throws ParserConfigurationException, IOException, SAXException {
 
         DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
         DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
@@ -108,4 +253,48 @@ public class SharedParamsParser {
         log.debug("Result set: {}", securityServerInfos.toString());
         return securityServerInfos;
     }
+
+    private static byte[] hash(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void close(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                log.debug("Failed to close stream reader", e);
+            }
+        }
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return factory;
+    }
+
+    /**
+     * Member class and code of a member
+     */
+    @RequiredArgsConstructor
+    private static final class Member {
+        private final String memberClass;
+        private final String memberCode;
+    }
+
+    /**
+     * Parsed security servers and the hash of the parsed content
+     */
+    @RequiredArgsConstructor
+    private static final class ParseResult {
+        private final byte[] hash;
+        private final Set<SecurityServerInfo> securityServerInfos;
+    }
 }
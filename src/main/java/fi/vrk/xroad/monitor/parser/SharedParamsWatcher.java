@@ -0,0 +1,155 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.parser;
+
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.xml.sax.SAXException;
+
+import javax.annotation.PreDestroy;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches X-Road global configuration shared-params.xml for changes. The parser returns its previous result
+ * while the content of the file has not changed, so only a new result is passed on. Changes are noticed from
+ * file system events, and the file is also checked periodically in case an event is missed, for example when
+ * the directory is replaced.
+ */
+@Slf4j
+@Component
+public class SharedParamsWatcher {
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private SharedParamsParser parser;
+
+    private Thread thread;
+    private WatchService watchService;
+    private Consumer<Set<SecurityServerInfo>> listener;
+    // last result passed to the listener
+    private Set<SecurityServerInfo> securityServerInfos;
+
+    /**
+     * Parses the file and passes the security servers to the listener, then passes them again in a
+     * background thread whenever the content of the file changes
+     * @param changeListener called with the complete set of security servers
+     * @throws IOException if watching the file fails
+     */
+    public synchronized void start(Consumer<Set<SecurityServerInfo>> changeListener) throws IOException {
+        if (thread != null) {
+            throw new IllegalStateException("Already watching shared parameters");
+        }
+        listener = changeListener;
+        final Path file = getFile();
+        final long interval = environment.getProperty(MonitorCollectorPropertyKeys.SHARED_PARAMS_CHECK_INTERVAL,
+            Long.class, MonitorCollectorConstants.DEFAULT_SHARED_PARAMS_CHECK_INTERVAL);
+        watchService = FileSystems.getDefault().newWatchService();
+        check();
+        thread = new Thread(() -> watch(file, interval), "shared-params-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching
+     */
+    @PreDestroy
+    public synchronized void stop() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    /**
+     * Parses the file and notifies the listener if its content has changed since the last successful parse
+     */
+    synchronized void check() {
+        final Path file = getFile();
+        try {
+            final Set<SecurityServerInfo> parsed = parser.parse();
+            if (parsed == securityServerInfos) {
+                return;
+            }
+            log.info("Parsed global configuration {}", file);
+            log.debug("Parsed results: {}", parsed);
+            securityServerInfos = parsed;
+            listener.accept(parsed);
+        } catch (ParserConfigurationException | IOException | SAXException e) {
+            // the file may be in the middle of an update, it is checked again later
+            log.error("Failed parsing global configuration {}", file, e);
+        }
+    }
+
+    private void watch(Path file, long interval) {
+        WatchKey key = null;
+        try {
+            while (true) {
+                if (key == null || !key.isValid()) {
+                    key = register(file.toAbsolutePath().getParent());
+                }
+                // any event in the directory or the check interval triggers a check of the content
+                final WatchKey signalled = watchService.poll(interval, TimeUnit.MILLISECONDS);
+                if (signalled != null) {
+                    signalled.pollEvents();
+                    signalled.reset();
+                }
+                check();
+            }
+        } catch (ClosedWatchServiceException e) {
+            log.debug("Stopped watching shared parameters");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private WatchKey register(Path directory) {
+        try {
+            return directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            log.warn("Failed to watch {}, checking for changes periodically", directory, e);
+            return null;
+        }
+    }
+
+    private Path getFile() {
+        return Paths.get(environment.getProperty("xroad-monitor-collector.shared-params-file"));
+    }
+}
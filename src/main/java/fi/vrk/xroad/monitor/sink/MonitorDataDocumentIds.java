@@ -0,0 +1,93 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.sink;
+
+import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import static fi.vrk.xroad.monitor.util.MonitorCollectorDataUtils.getServerName;
+
+/**
+ * Document ids for monitoring data. Deterministic ids combine the security server name with the start of
+ * the time bucket the collection run started in, so collecting again in the same bucket or replaying a
+ * document overwrites the earlier document instead of adding a duplicate. Buckets are aligned to local
+ * time like the daily index names.
+ */
+@Slf4j
+@Component
+public class MonitorDataDocumentIds {
+
+  @Autowired
+  private Environment environment;
+
+  private boolean deterministic;
+  private long bucket;
+  private String xroadInstance;
+
+  /**
+   * Reads configuration
+   */
+  @PostConstruct
+  public void init() {
+    final String documentId = environment.getProperty(MonitorCollectorPropertyKeys.DOCUMENT_ID,
+        MonitorCollectorConstants.DOCUMENT_ID_GENERATED);
+    if (!MonitorCollectorConstants.DOCUMENT_ID_GENERATED.equals(documentId)
+        && !MonitorCollectorConstants.DOCUMENT_ID_DETERMINISTIC.equals(documentId)) {
+      throw new IllegalArgumentException("Unknown document id " + documentId);
+    }
+    deterministic = MonitorCollectorConstants.DOCUMENT_ID_DETERMINISTIC.equals(documentId);
+    bucket = environment.getProperty(MonitorCollectorPropertyKeys.DOCUMENT_ID_BUCKET, Long.class,
+        MonitorCollectorConstants.DEFAULT_DOCUMENT_ID_BUCKET);
+    if (bucket <= 0) {
+      throw new IllegalArgumentException("Invalid document id bucket " + bucket);
+    }
+    xroadInstance = environment.getProperty(MonitorCollectorPropertyKeys.INSTANCE);
+    log.info("Using {} document ids", documentId);
+  }
+
+  /**
+   * Creates document id for monitoring data of security server
+   * @param info security server
+   * @param runTimestamp start time of the collection run in milliseconds
+   * @return document id or null if the sink generates ids
+   */
+  public String create(SecurityServerInfo info, long runTimestamp) {
+    if (!deterministic) {
+      return null;
+    }
+    final long offset = TimeZone.getDefault().getOffset(runTimestamp);
+    final long bucketStart = Math.floorDiv(runTimestamp + offset, bucket) * bucket - offset;
+    return getServerName(info, xroadInstance) + "@"
+        + new SimpleDateFormat("yyyy-MM-dd'T'HH:mm").format(new Date(bucketStart));
+  }
+}
@@ -0,0 +1,195 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.sink;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes monitoring data as gzip compressed newline delimited JSON in the Elasticsearch bulk format, for loading
+ * into Elasticsearch or elsewhere with a batch loader. Each document is on its own line after an index action
+ * line with the document id, or without an id if the sink is to generate it. A file is written with a
+ * {@code .part} suffix that is removed when the file is complete, at the end of a collection run or when it
+ * has reached the maximum size.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = MonitorCollectorPropertyKeys.SINK, havingValue = MonitorCollectorConstants.SINK_FILE)
+public class MonitorDataFileSink implements MonitorDataSink {
+
+  private static final String FILE_SUFFIX = ".ndjson.gz";
+  private static final String PART_SUFFIX = ".part";
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final long MEGABYTE = 1024L * 1024L;
+  private static final byte NEWLINE = '\n';
+  private static final byte[] INDEX_ACTION = "{\"index\":{}}".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] INDEX_ACTION_ID_START = "{\"index\":{\"_id\":\"".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] INDEX_ACTION_ID_END = "\"}}".getBytes(StandardCharsets.UTF_8);
+
+  @Autowired
+  private Environment environment;
+
+  private Path directory;
+  private long maxFileSize;
+
+  private Path file;
+  private FileChannel channel;
+  private GZIPOutputStream out;
+  // counts the compressed bytes written to the file
+  private CountingOutputStream fileOut;
+  private int sequence;
+
+  /**
+   * Reads configuration and creates the output directory
+   * @throws IOException
+   */
+  @PostConstruct
+  public void init() throws IOException {
+    directory = Paths.get(environment.getProperty(MonitorCollectorPropertyKeys.FILE_SINK_DIRECTORY));
+    maxFileSize = environment.getProperty(MonitorCollectorPropertyKeys.FILE_SINK_MAX_FILE_SIZE_MB, Integer.class,
+        MonitorCollectorConstants.DEFAULT_FILE_SINK_MAX_FILE_SIZE_MB) * MEGABYTE;
+    Files.createDirectories(directory);
+    log.info("Writing monitoring data to {}", directory);
+  }
+
+  @Override
+  public CompletableFuture<SaveResult> save(String id, String json) {
+    return save(id, new BytesArray(json));
+  }
+
+  @Override
+  public CompletableFuture<SaveResult> save(String id, BytesReference document) {
+    final CompletableFuture<SaveResult> result = new CompletableFuture<>();
+    try {
+      write(id, document);
+      result.complete(SaveResult.STORED);
+    } catch (IOException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  @Override
+  public synchronized CompletableFuture<Boolean> flush() {
+    try {
+      close();
+      return CompletableFuture.completedFuture(true);
+    } catch (IOException e) {
+      log.error("Failed to complete monitoring data file {}", file, e);
+      return CompletableFuture.completedFuture(false);
+    }
+  }
+
+  /**
+   * Completes the current file
+   * @throws IOException
+   */
+  @PreDestroy
+  public synchronized void shutdown() throws IOException {
+    close();
+  }
+
+  private synchronized void write(String id, BytesReference document) throws IOException {
+    if (out != null && fileOut.getByteCount() >= maxFileSize) {
+      close();
+    }
+    if (out == null) {
+      open();
+    }
+    final byte[] action = getIndexAction(id);
+    out.write(action);
+    out.write(NEWLINE);
+    document.writeTo(out);
+    out.write(NEWLINE);
+  }
+
+  /**
+   * @return bulk index action line without the newline
+   */
+  private static byte[] getIndexAction(String id) {
+    if (id == null) {
+      return INDEX_ACTION;
+    }
+    final byte[] quoted = JsonStringEncoder.getInstance().quoteAsUTF8(id);
+    final byte[] action = new byte[INDEX_ACTION_ID_START.length + quoted.length + INDEX_ACTION_ID_END.length];
+    System.arraycopy(INDEX_ACTION_ID_START, 0, action, 0, INDEX_ACTION_ID_START.length);
+    System.arraycopy(quoted, 0, action, INDEX_ACTION_ID_START.length, quoted.length);
+    System.arraycopy(INDEX_ACTION_ID_END, 0, action, INDEX_ACTION_ID_START.length + quoted.length,
+        INDEX_ACTION_ID_END.length);
+    return action;
+  }
+
+  private void open() throws IOException {
+    final String name = String.format("monitor-data-%s-%04d%s",
+        new SimpleDateFormat("yyyyMMdd'T'HHmmss").format(new Date()), sequence++, FILE_SUFFIX);
+    file = directory.resolve(name + PART_SUFFIX);
+    channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    fileOut = new CountingOutputStream(Channels.newOutputStream(channel));
+    out = new GZIPOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE), BUFFER_SIZE);
+  }
+
+  private void close() throws IOException {
+    if (out == null) {
+      return;
+    }
+    try {
+      out.finish();
+      out.flush();
+      channel.force(false);
+      out.close();
+    } finally {
+      out = null;
+      channel = null;
+    }
+    final String name = file.getFileName().toString();
+    final Path complete = file.resolveSibling(name.substring(0, name.length() - PART_SUFFIX.length()));
+    Files.move(file, complete, StandardCopyOption.ATOMIC_MOVE);
+    log.info("Wrote {} compressed bytes of monitoring data to {}", fileOut.getByteCount(), complete);
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.sink;
+
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Destination of collected monitoring data documents. The sink is selected with
+ * {@code xroad-monitor-collector.sink}, implementations must be thread safe.
+ */
+public interface MonitorDataSink {
+
+  /**
+   * Write json document
+   * @param id document id, an earlier document with the same id is replaced, or null to generate an id
+   * @param json
+   * @return completed when the document has been stored, or exceptionally when storing failed
+   */
+  CompletableFuture<SaveResult> save(String id, String json);
+
+  /**
+   * Write UTF-8 JSON document without copying it
+   * @param id document id, an earlier document with the same id is replaced, or null to generate an id
+   * @param document
+   * @return completed when the document has been stored, or exceptionally when storing failed
+   */
+  CompletableFuture<SaveResult> save(String id, BytesReference document);
+
+  /**
+   * Store written documents at the end of a collection run
+   * @return completed with true when all documents have been stored, or with false if they were not stored
+   * before the timeout
+   */
+  CompletableFuture<Boolean> flush();
+
+  /**
+   * How a document that did not fail was stored
+   */
+  enum SaveResult {
+    // stored at once
+    STORED,
+    // spooled to be stored later
+    SPOOLED,
+    // rejected by storage because it is overloaded and spooled instead, writers should slow down
+    SPOOLED_AFTER_REJECTION
+  }
+}
@@ -0,0 +1,373 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.spool;
+
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Append-only disk spool for monitoring data documents that could not be indexed.
+ *
+ * Documents are appended to segment files that are closed when they reach the segment size. Each record is
+ * {@code length, crc32, flags, index, id, document}, where length and the checksum cover everything after
+ * the checksum and the document is deflated when compression is enabled. Segments are replayed oldest first
+ * and deleted after all their documents have been indexed. A record torn by a crash ends its segment.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = MonitorCollectorPropertyKeys.SINK,
+    havingValue = MonitorCollectorConstants.SINK_ELASTICSEARCH, matchIfMissing = true)
+public class MonitorDataSpool {
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".spool";
+  private static final int HEADER_LENGTH = 8;
+  private static final byte FLAG_COMPRESSED = 1;
+  private static final int INFLATE_BUFFER_SIZE = 8192;
+  private static final long MEGABYTE = 1024L * 1024L;
+
+  @Autowired
+  private Environment environment;
+
+  private boolean enabled;
+  private Path directory;
+  private long segmentSize;
+  private boolean compress;
+  private boolean fsync;
+
+  private final Deque<Path> closedSegments = new ArrayDeque<>();
+  private long nextSequence;
+  private Path activeSegment;
+  private FileChannel activeChannel;
+  private long records;
+  // updated with the segments and records under the lock, read on every save without it
+  private volatile boolean pending;
+
+  /**
+   * Reads configuration and finds segments left by earlier runs
+   */
+  @PostConstruct
+  public void init() {
+    enabled = environment.getProperty(MonitorCollectorPropertyKeys.SPOOL_ENABLED, Boolean.class, false);
+    if (!enabled) {
+      return;
+    }
+    directory = Paths.get(environment.getProperty(MonitorCollectorPropertyKeys.SPOOL_DIRECTORY));
+    segmentSize = environment.getProperty(MonitorCollectorPropertyKeys.SPOOL_SEGMENT_SIZE_MB, Integer.class,
+        MonitorCollectorConstants.DEFAULT_SPOOL_SEGMENT_SIZE_MB) * MEGABYTE;
+    compress = environment.getProperty(MonitorCollectorPropertyKeys.SPOOL_COMPRESS, Boolean.class, true);
+    fsync = environment.getProperty(MonitorCollectorPropertyKeys.SPOOL_FSYNC, Boolean.class, false);
+    try {
+      Files.createDirectories(directory);
+      try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory,
+          SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+        List<Path> existing = new ArrayList<>();
+        segments.forEach(existing::add);
+        existing.sort(null);
+        for (Path segment : existing) {
+          closedSegments.add(segment);
+          nextSequence = Math.max(nextSequence, getSequence(segment) + 1);
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      log.error("Spool directory {} is not usable, spool disabled", directory, e);
+      enabled = false;
+      return;
+    }
+    pending = !closedSegments.isEmpty();
+    log.info("Spool {} has {} segments to replay", directory, closedSegments.size());
+  }
+
+  /**
+   * @return true if documents can be spooled
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return true if there are spooled documents that have not been replayed
+   */
+  public boolean isPending() {
+    return pending;
+  }
+
+  /**
+   * Appends document to the active segment
+   * @param record
+   * @throws IOException if the spool is disabled or the record could not be written
+   */
+  public synchronized void append(SpoolRecord record) throws IOException {
+    if (!enabled) {
+      throw new IOException("Spool is disabled");
+    }
+    final ByteBuffer buffer = encode(record);
+    if (activeChannel != null && activeChannel.size() + buffer.remaining() > segmentSize) {
+      closeActiveSegment();
+    }
+    if (activeChannel == null) {
+      activeSegment = directory.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, nextSequence++, SEGMENT_SUFFIX));
+      activeChannel = FileChannel.open(activeSegment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+          StandardOpenOption.APPEND);
+    }
+    while (buffer.hasRemaining()) {
+      activeChannel.write(buffer);
+    }
+    if (fsync) {
+      activeChannel.force(false);
+    }
+    records++;
+    pending = true;
+  }
+
+  /**
+   * Closes the active segment if it has records and returns the oldest segment to replay
+   * @return oldest segment or null if nothing is spooled
+   * @throws IOException
+   */
+  public synchronized Path nextSegment() throws IOException {
+    if (closedSegments.isEmpty() && records > 0) {
+      closeActiveSegment();
+    }
+    return closedSegments.peek();
+  }
+
+  /**
+   * Removes segment whose documents have been indexed
+   * @param segment
+   * @throws IOException
+   */
+  public synchronized void delete(Path segment) throws IOException {
+    closedSegments.remove(segment);
+    pending = !closedSegments.isEmpty() || records > 0;
+    Files.deleteIfExists(segment);
+  }
+
+  /**
+   * Reads the records of a closed segment, stopping at the first torn or corrupted record
+   * @param segment
+   * @return records in the order they were appended
+   * @throws IOException
+   */
+  public static List<SpoolRecord> read(Path segment) throws IOException {
+    final List<SpoolRecord> result = new ArrayList<>();
+    try (SegmentReader reader = open(segment)) {
+      SpoolRecord record;
+      while ((record = reader.next()) != null) {
+        result.add(record);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Opens a closed segment for reading its records one at a time
+   * @param segment
+   * @return reader positioned at the first record
+   * @throws IOException
+   */
+  public static SegmentReader open(Path segment) throws IOException {
+    return new SegmentReader(segment);
+  }
+
+  /**
+   * Closes the active segment
+   * @throws IOException
+   */
+  @PreDestroy
+  public synchronized void shutdown() throws IOException {
+    if (activeChannel != null) {
+      closeActiveSegment();
+    }
+  }
+
+  private void closeActiveSegment() throws IOException {
+    try {
+      activeChannel.force(true);
+      activeChannel.close();
+    } finally {
+      closedSegments.add(activeSegment);
+      activeChannel = null;
+      activeSegment = null;
+      records = 0;
+    }
+  }
+
+  private ByteBuffer encode(SpoolRecord record) throws IOException {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream(record.getDocument().length() + HEADER_LENGTH);
+    body.write(compress ? FLAG_COMPRESSED : 0);
+    writeString(body, record.getIndex());
+    writeString(body, record.getId());
+    if (compress) {
+      try (OutputStream out = new DeflaterOutputStream(body)) {
+        record.getDocument().writeTo(out);
+      }
+    } else {
+      record.getDocument().writeTo(body);
+    }
+    final byte[] bytes = body.toByteArray();
+    final CRC32 crc = new CRC32();
+    crc.update(bytes);
+    final ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + bytes.length);
+    buffer.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes);
+    buffer.flip();
+    return buffer;
+  }
+
+  private static SpoolRecord decode(byte[] body) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.wrap(body);
+    final byte flags = buffer.get();
+    final String index = readString(buffer);
+    final String id = readString(buffer);
+    BytesReference document = new BytesArray(body, buffer.position(), buffer.remaining());
+    if ((flags & FLAG_COMPRESSED) != 0) {
+      final ByteArrayOutputStream inflated = new ByteArrayOutputStream(body.length * 2);
+      try (InputStream in = new InflaterInputStream(document.streamInput())) {
+        final byte[] chunk = new byte[INFLATE_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+          inflated.write(chunk, 0, read);
+        }
+      }
+      document = new BytesArray(inflated.toByteArray());
+    }
+    return new SpoolRecord(index, id, document);
+  }
+
+  private static void writeString(ByteArrayOutputStream out, String value) {
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.write(bytes.length >>> Byte.SIZE);
+    out.write(bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    final byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static long getSequence(Path segment) {
+    final String name = segment.getFileName().toString();
+    return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  /**
+   * Reads the records of a segment in the order they were appended, stopping at the first torn or corrupted
+   * record. Only one record is held in memory at a time.
+   */
+  public static final class SegmentReader implements Closeable {
+
+    private final Path segment;
+    private final long segmentLength;
+    private final DataInputStream in;
+    private int records;
+    private boolean ended;
+
+    private SegmentReader(Path segment) throws IOException {
+      this.segment = segment;
+      this.segmentLength = Files.size(segment);
+      this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)));
+    }
+
+    /**
+     * @return next record, or null at the end of the segment
+     * @throws IOException
+     */
+    public SpoolRecord next() throws IOException {
+      if (ended) {
+        return null;
+      }
+      final int length;
+      try {
+        length = in.readInt();
+      } catch (EOFException e) {
+        return end();
+      }
+      if (length <= 0 || length > segmentLength) {
+        log.error("Segment {} has a corrupted record after {} records", segment, records);
+        return end();
+      }
+      final byte[] body = new byte[length];
+      final long checksum;
+      try {
+        checksum = Integer.toUnsignedLong(in.readInt());
+        in.readFully(body);
+      } catch (EOFException e) {
+        log.warn("Segment {} ends with a torn record after {} records", segment, records);
+        return end();
+      }
+      final CRC32 crc = new CRC32();
+      crc.update(body);
+      if (crc.getValue() != checksum) {
+        log.error("Segment {} has a corrupted record after {} records", segment, records);
+        return end();
+      }
+      records++;
+      return decode(body);
+    }
+
+    private SpoolRecord end() {
+      ended = true;
+      return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.spool;
+
+import fi.vrk.xroad.monitor.elasticsearch.EnvMonitorDataStorageDao;
+import fi.vrk.xroad.monitor.util.MonitorCollectorConstants;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static fi.vrk.xroad.monitor.util.MonitorCollectorDataUtils.isTransientFailure;
+
+/**
+ * Drains spooled documents into Elasticsearch in the background. Segments are replayed oldest first with
+ * bulk requests, streaming their records with at most max-outstanding-writes writes in flight, and a segment
+ * is deleted when none of its documents failed transiently. Documents keep the id they were given when
+ * spooled, so replaying a segment again does not duplicate them.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = MonitorCollectorPropertyKeys.SINK,
+    havingValue = MonitorCollectorConstants.SINK_ELASTICSEARCH, matchIfMissing = true)
+public class MonitorDataSpoolReplayer {
+
+  @Autowired
+  private Environment environment;
+
+  @Autowired
+  private MonitorDataSpool spool;
+
+  @Autowired
+  private EnvMonitorDataStorageDao envMonitorDataStorageDao;
+
+  private ScheduledExecutorService executor;
+  private String type;
+  private long timeout;
+  private int maxOutstandingWrites;
+
+  /**
+   * Starts replaying the spool periodically
+   */
+  @PostConstruct
+  public void init() {
+    if (!spool.isEnabled()) {
+      return;
+    }
+    type = environment.getProperty("xroad-monitor-collector-elasticsearch.type");
+    timeout = environment.getProperty(MonitorCollectorPropertyKeys.ES_BULK_AWAIT_TIMEOUT, Integer.class,
+        MonitorCollectorConstants.DEFAULT_ES_BULK_AWAIT_TIMEOUT);
+    maxOutstandingWrites = environment.getProperty(MonitorCollectorPropertyKeys.ES_MAX_OUTSTANDING_WRITES,
+        Integer.class, MonitorCollectorConstants.DEFAULT_ES_MAX_OUTSTANDING_WRITES);
+    final long interval = environment.getProperty(MonitorCollectorPropertyKeys.SPOOL_REPLAY_INTERVAL,
+        Integer.class, MonitorCollectorConstants.DEFAULT_SPOOL_REPLAY_INTERVAL);
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "spool-replayer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::replay, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Replays segments until the spool is empty or Elasticsearch fails
+   */
+  void replay() {
+    try {
+      Path segment;
+      while ((segment = spool.nextSegment()) != null) {
+        if (!replay(segment)) {
+          return;
+        }
+        spool.delete(segment);
+      }
+    } catch (IOException e) {
+      log.error("Failed to replay spool", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      // do not let the exception cancel the scheduled replays
+      log.error("Failed to replay spool", e);
+    }
+  }
+
+  private boolean replay(Path segment) throws IOException, InterruptedException {
+    log.info("Replay spooled documents from {}", segment);
+    // records are streamed from the segment and, as in collection runs, only a bounded number of writes is
+    // outstanding, so a large segment is not held in memory
+    final Semaphore outstanding = new Semaphore(maxOutstandingWrites);
+    final AtomicBoolean postponed = new AtomicBoolean();
+    int count = 0;
+    try (MonitorDataSpool.SegmentReader reader = MonitorDataSpool.open(segment)) {
+      for (SpoolRecord record = reader.next(); record != null && !postponed.get(); record = reader.next()) {
+        if (!acquire(outstanding, 1)) {
+          postponed.set(true);
+          break;
+        }
+        final SpoolRecord replayed = record;
+        envMonitorDataStorageDao.addToBulk(record.getIndex(), type, record.getId(), record.getDocument())
+            .whenComplete((response, failure) -> {
+              if (failure != null && isTransientFailure(failure)) {
+                postponed.set(true);
+              } else if (failure != null) {
+                log.error("Dropping spooled document {} that cannot be indexed", replayed, failure);
+              }
+              outstanding.release();
+            });
+        count++;
+      }
+    }
+    // wait until all writes of the segment have completed
+    if (!postponed.get() && !acquire(outstanding, maxOutstandingWrites)) {
+      postponed.set(true);
+    }
+    if (postponed.get()) {
+      log.warn("Elasticsearch is not available, replay of {} postponed", segment);
+      return false;
+    }
+    log.info("Replayed {} spooled documents from {}", count, segment);
+    return true;
+  }
+
+  /**
+   * Waits for completion of writes until the permits are available
+   * @return false if the writes did not complete in time
+   */
+  private boolean acquire(Semaphore outstanding, int permits) throws InterruptedException {
+    if (outstanding.tryAcquire(permits)) {
+      return true;
+    }
+    // send the documents waiting in the bulk processor now rather than after the flush interval
+    envMonitorDataStorageDao.flushBulk(timeout, TimeUnit.MILLISECONDS);
+    return outstanding.tryAcquire(permits, timeout, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops replaying
+   */
+  @PreDestroy
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+}
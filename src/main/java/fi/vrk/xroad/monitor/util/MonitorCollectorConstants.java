@@ -28,9 +28,115 @@ package fi.vrk.xroad.monitor.util;
  */
 public final class MonitorCollectorConstants {
 
-  public static final int SUPERVISOR_MONITOR_DATA_ACTOR_POOL_SIZE = 3;
+  public static final int DEFAULT_CONCURRENCY_LIMIT = 3;
 
-  public static final int CONNECT_TIMEOUT = 60000;
+  public static final int DEFAULT_MAX_CONCURRENCY_LIMIT = 50;
+
+  public static final double DEFAULT_CONCURRENCY_BACKOFF_RATIO = 0.75;
+
+  public static final double DEFAULT_CONCURRENCY_LATENCY_TOLERANCE = 2.0;
+
+  public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 60000;
+
+  public static final int DEFAULT_CONNECT_TIMEOUT = 60000;
+
+  public static final int DEFAULT_SOCKET_TIMEOUT = 60000;
+
+  public static final long DEFAULT_RUN_DEADLINE = 0;
+
+  public static final long DEFAULT_RUN_DEADLINE_GRACE = 60000L;
+
+  public static final double DEFAULT_HEDGE_PERCENTILE = 95.0;
+
+  public static final long DEFAULT_HEDGE_MIN_DELAY = 1000L;
+
+  public static final int DEFAULT_RETRY_MAX_ATTEMPTS = 1;
+
+  public static final long DEFAULT_RETRY_INITIAL_DELAY = 1000L;
+
+  public static final long DEFAULT_RETRY_MAX_DELAY = 30000L;
+
+  public static final double DEFAULT_RETRY_JITTER = 0.5;
+
+  public static final String DEFAULT_RETRY_FAULT_CODES = "NetworkError,IOError,Timeout";
+
+  public static final int DEFAULT_POOL_MAX_TOTAL = 100;
+
+  public static final int DEFAULT_POOL_MAX_PER_ROUTE = 100;
+
+  public static final int DEFAULT_POOL_VALIDATE_AFTER_INACTIVITY = 2000;
+
+  public static final int DEFAULT_POOL_IDLE_TIMEOUT = 30000;
+
+  public static final int DEFAULT_SSL_SESSION_CACHE_SIZE = 100;
+
+  public static final int DEFAULT_SSL_SESSION_TIMEOUT = 86400;
+
+  public static final String RESPONSE_PARSER_DOM = "dom";
+
+  public static final String RESPONSE_PARSER_STAX = "stax";
+
+  public static final int DEFAULT_ES_BULK_ACTIONS = 1000;
+
+  public static final int DEFAULT_ES_BULK_SIZE_MB = 5;
+
+  public static final int DEFAULT_ES_BULK_FLUSH_INTERVAL = 5000;
+
+  public static final int DEFAULT_ES_BULK_CONCURRENT_REQUESTS = 2;
+
+  public static final int DEFAULT_ES_BULK_BACKOFF_INITIAL_DELAY = 100;
+
+  public static final int DEFAULT_ES_BULK_BACKOFF_RETRIES = 5;
+
+  public static final int DEFAULT_ES_BULK_AWAIT_TIMEOUT = 60000;
+
+  public static final int DEFAULT_ES_MAX_OUTSTANDING_WRITES = 2000;
+
+  public static final int DEFAULT_SPOOL_SEGMENT_SIZE_MB = 64;
+
+  public static final int DEFAULT_SPOOL_REPLAY_INTERVAL = 60000;
+
+  public static final String SINK_ELASTICSEARCH = "elasticsearch";
+
+  public static final String SINK_FILE = "file";
+
+  public static final int DEFAULT_FILE_SINK_MAX_FILE_SIZE_MB = 256;
+
+  public static final long DEFAULT_SCHEDULE_INTERVAL = 3600000L;
+
+  public static final long DEFAULT_SHARED_PARAMS_CHECK_INTERVAL = 60000L;
+
+  public static final String DOCUMENT_ID_GENERATED = "generated";
+
+  public static final String DOCUMENT_ID_DETERMINISTIC = "deterministic";
+
+  public static final long DEFAULT_DOCUMENT_ID_BUCKET = 86400000L;
+
+  public static final String INDEX_MODE_DAILY = "daily";
+
+  public static final String INDEX_MODE_ROLLOVER = "rollover";
+
+  public static final long DEFAULT_ES_ROLLOVER_MAX_AGE = 604800000L;
+
+  public static final long DEFAULT_ES_ROLLOVER_MAX_DOCS = 0;
+
+  public static final long DEFAULT_ES_ROLLOVER_MAX_SIZE_MB = 30720;
+
+  public static final String INDEX_TEMPLATE_RESOURCE = "index-template.json";
+
+  public static final String DISPATCH_MODE_IMMEDIATE = "immediate";
+
+  public static final String DISPATCH_MODE_STAGGERED = "staggered";
+
+  public static final long DEFAULT_DISPATCH_WINDOW = 600000L;
+
+  public static final double DEFAULT_DISPATCH_JITTER = 0.5;
+
+  public static final String DEFAULT_LATENCY_HISTORY_DIRECTORY = "/var/lib/xroad-monitor-collector/history";
+
+  public static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+
+  public static final long DEFAULT_CIRCUIT_BREAKER_PROBE_INTERVAL = 21600000L;
 
   private MonitorCollectorConstants() { }
 
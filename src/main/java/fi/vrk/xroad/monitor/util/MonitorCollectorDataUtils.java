@@ -22,6 +22,9 @@
  */
 package fi.vrk.xroad.monitor.util;
 
+import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.rest.RestStatus;
 import org.springframework.core.env.Environment;
 
 import java.util.Calendar;
@@ -37,12 +40,44 @@ public final class MonitorCollectorDataUtils {
    * @return index name
    */
   public static String getIndexName(Environment environment) {
-    Calendar calendar = Calendar.getInstance();
-    return String.format("%s-%d-%02d-%02d",
-        environment.getProperty("xroad-monitor-collector-elasticsearch.index"), calendar.get(Calendar.YEAR),
+    return getIndexName(environment.getProperty("xroad-monitor-collector-elasticsearch.index"),
+        Calendar.getInstance());
+  }
+
+  /**
+   * Get index name (prefix+date) for given date
+   * @param prefix
+   * @param calendar
+   * @return index name
+   */
+  public static String getIndexName(String prefix, Calendar calendar) {
+    return String.format("%s-%d-%02d-%02d", prefix, calendar.get(Calendar.YEAR),
         calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DATE));
   }
 
+  /**
+   * Get security server name as used in monitoring data documents
+   * @param info
+   * @param xroadInstance
+   * @return name of the form SERVER:instance/class/member/server
+   */
+  public static String getServerName(SecurityServerInfo info, String xroadInstance) {
+    return String.format("SERVER:%s/%s/%s/%s", xroadInstance, info.getMemberClass(), info.getMemberCode(),
+        info.getServerCode());
+  }
+
+  /**
+   * Tells if indexing may succeed later, when Elasticsearch is unavailable or rejecting writes.
+   * Invalid documents fail with a client error status.
+   * @param failure
+   * @return true if indexing should be retried
+   */
+  public static boolean isTransientFailure(Throwable failure) {
+    final RestStatus status = ExceptionsHelper.status(failure);
+    return status == RestStatus.TOO_MANY_REQUESTS
+        || status.getStatus() >= RestStatus.INTERNAL_SERVER_ERROR.getStatus();
+  }
+
   private MonitorCollectorDataUtils() { }
 
 }
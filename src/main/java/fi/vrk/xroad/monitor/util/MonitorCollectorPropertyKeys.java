@@ -40,5 +40,148 @@ public final class MonitorCollectorPropertyKeys {
 
     public static final String QUERY_PARAMETERS = "xroad-monitor-collector.query-parameters";
 
+    public static final String ASYNC_REQUESTS = "xroad-monitor-collector-client.async-requests";
+
+    public static final String POOL_MAX_TOTAL = "xroad-monitor-collector-client.pool.max-total";
+
+    public static final String POOL_MAX_PER_ROUTE = "xroad-monitor-collector-client.pool.max-per-route";
+
+    public static final String POOL_VALIDATE_AFTER_INACTIVITY =
+        "xroad-monitor-collector-client.pool.validate-after-inactivity";
+
+    public static final String POOL_IDLE_TIMEOUT = "xroad-monitor-collector-client.pool.idle-timeout";
+
+    public static final String POOL_PREWARM_CONNECTIONS = "xroad-monitor-collector-client.pool.prewarm-connections";
+
+    public static final String CONNECTION_REQUEST_TIMEOUT =
+        "xroad-monitor-collector-client.timeout.connection-request";
+
+    public static final String CONNECT_TIMEOUT = "xroad-monitor-collector-client.timeout.connect";
+
+    public static final String SOCKET_TIMEOUT = "xroad-monitor-collector-client.timeout.socket";
+
+    public static final String HEDGE_ENABLED = "xroad-monitor-collector-client.hedge.enabled";
+
+    public static final String HEDGE_PERCENTILE = "xroad-monitor-collector-client.hedge.percentile";
+
+    public static final String HEDGE_MIN_DELAY = "xroad-monitor-collector-client.hedge.min-delay";
+
+    public static final String RETRY_MAX_ATTEMPTS = "xroad-monitor-collector-client.retry.max-attempts";
+
+    public static final String RETRY_INITIAL_DELAY = "xroad-monitor-collector-client.retry.initial-delay";
+
+    public static final String RETRY_MAX_DELAY = "xroad-monitor-collector-client.retry.max-delay";
+
+    public static final String RETRY_JITTER = "xroad-monitor-collector-client.retry.jitter";
+
+    public static final String RETRY_FAULT_CODES = "xroad-monitor-collector-client.retry.fault-codes";
+
+    public static final String SSL_SESSION_CACHE_SIZE = "xroad-monitor-collector-client.ssl-session-cache-size";
+
+    public static final String SSL_SESSION_TIMEOUT = "xroad-monitor-collector-client.ssl-session-timeout";
+
+    public static final String CONCURRENCY_LIMITER = "xroad-monitor-collector.concurrency.limiter";
+
+    public static final String CONCURRENCY_INITIAL_LIMIT = "xroad-monitor-collector.concurrency.initial-limit";
+
+    public static final String CONCURRENCY_MIN_LIMIT = "xroad-monitor-collector.concurrency.min-limit";
+
+    public static final String CONCURRENCY_MAX_LIMIT = "xroad-monitor-collector.concurrency.max-limit";
+
+    public static final String CONCURRENCY_BACKOFF_RATIO = "xroad-monitor-collector.concurrency.backoff-ratio";
+
+    public static final String CONCURRENCY_LATENCY_TOLERANCE = "xroad-monitor-collector.concurrency.latency-tolerance";
+
+    public static final String RESPONSE_PARSER = "xroad-monitor-collector.response-parser";
+
+    public static final String KEYED_METRICS = "xroad-monitor-collector.keyed-metrics";
+
+    public static final String ES_BULK_ACTIONS = "xroad-monitor-collector-elasticsearch.bulk.actions";
+
+    public static final String ES_BULK_SIZE_MB = "xroad-monitor-collector-elasticsearch.bulk.size-mb";
+
+    public static final String ES_BULK_FLUSH_INTERVAL = "xroad-monitor-collector-elasticsearch.bulk.flush-interval";
+
+    public static final String ES_BULK_CONCURRENT_REQUESTS =
+        "xroad-monitor-collector-elasticsearch.bulk.concurrent-requests";
+
+    public static final String ES_BULK_BACKOFF_INITIAL_DELAY =
+        "xroad-monitor-collector-elasticsearch.bulk.backoff-initial-delay";
+
+    public static final String ES_BULK_BACKOFF_RETRIES = "xroad-monitor-collector-elasticsearch.bulk.backoff-retries";
+
+    public static final String ES_BULK_AWAIT_TIMEOUT = "xroad-monitor-collector-elasticsearch.bulk.await-timeout";
+
+    public static final String ES_MAX_OUTSTANDING_WRITES =
+        "xroad-monitor-collector-elasticsearch.max-outstanding-writes";
+
+    public static final String SPOOL_ENABLED = "xroad-monitor-collector-elasticsearch.spool.enabled";
+
+    public static final String SPOOL_DIRECTORY = "xroad-monitor-collector-elasticsearch.spool.directory";
+
+    public static final String SPOOL_SEGMENT_SIZE_MB = "xroad-monitor-collector-elasticsearch.spool.segment-size-mb";
+
+    public static final String SPOOL_COMPRESS = "xroad-monitor-collector-elasticsearch.spool.compress";
+
+    public static final String SPOOL_FSYNC = "xroad-monitor-collector-elasticsearch.spool.fsync";
+
+    public static final String SPOOL_REPLAY_INTERVAL = "xroad-monitor-collector-elasticsearch.spool.replay-interval";
+
+    public static final String SINK = "xroad-monitor-collector.sink";
+
+    public static final String FILE_SINK_DIRECTORY = "xroad-monitor-collector-file-sink.directory";
+
+    public static final String FILE_SINK_MAX_FILE_SIZE_MB = "xroad-monitor-collector-file-sink.max-file-size-mb";
+
+    public static final String ES_INDEX_TEMPLATE_ENABLED =
+        "xroad-monitor-collector-elasticsearch.index-template.enabled";
+
+    public static final String ES_INDEX_MODE = "xroad-monitor-collector-elasticsearch.index-mode";
+
+    public static final String ES_ROLLOVER_MAX_AGE = "xroad-monitor-collector-elasticsearch.rollover.max-age";
+
+    public static final String ES_ROLLOVER_MAX_DOCS = "xroad-monitor-collector-elasticsearch.rollover.max-docs";
+
+    public static final String ES_ROLLOVER_MAX_SIZE_MB = "xroad-monitor-collector-elasticsearch.rollover.max-size-mb";
+
+    public static final String DAEMON = "xroad-monitor-collector.daemon";
+
+    public static final String SCHEDULE_CRON = "xroad-monitor-collector.schedule.cron";
+
+    public static final String SCHEDULE_INTERVAL = "xroad-monitor-collector.schedule.interval";
+
+    public static final String SHARED_PARAMS_CHECK_INTERVAL = "xroad-monitor-collector.shared-params-check-interval";
+
+    public static final String DOCUMENT_ID = "xroad-monitor-collector.document-id";
+
+    public static final String DOCUMENT_ID_BUCKET = "xroad-monitor-collector.document-id-bucket";
+
+    public static final String DISPATCH_MODE = "xroad-monitor-collector.dispatch.mode";
+
+    public static final String DISPATCH_WINDOW = "xroad-monitor-collector.dispatch.window";
+
+    public static final String DISPATCH_JITTER = "xroad-monitor-collector.dispatch.jitter";
+
+    public static final String RUN_DEADLINE = "xroad-monitor-collector.run-deadline";
+
+    public static final String RUN_DEADLINE_GRACE = "xroad-monitor-collector.run-deadline-grace";
+
+    public static final String LATENCY_HISTORY_ENABLED = "xroad-monitor-collector.latency-history.enabled";
+
+    public static final String LATENCY_HISTORY_DIRECTORY = "xroad-monitor-collector.latency-history.directory";
+
+    public static final String CIRCUIT_BREAKER_ENABLED = "xroad-monitor-collector.circuit-breaker.enabled";
+
+    public static final String CIRCUIT_BREAKER_FAILURE_THRESHOLD =
+        "xroad-monitor-collector.circuit-breaker.failure-threshold";
+
+    public static final String CIRCUIT_BREAKER_PROBE_INTERVAL =
+        "xroad-monitor-collector.circuit-breaker.probe-interval";
+
+    public static final String INSTANCES = "xroad-monitor-collector.instances";
+
+    // followed by the instance name and the overridden property key
+    public static final String INSTANCE_PREFIX = "xroad-monitor-collector-instance.";
+
     private MonitorCollectorPropertyKeys() { }
 }
@@ -0,0 +1,74 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.actor;
+
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link CollectionSchedule}
+ */
+public class CollectionScheduleTest {
+
+    private static final long INTERVAL = 600000;
+
+    private static long timeOf(int hour, int minute, int second) {
+        return new GregorianCalendar(2018, Calendar.APRIL, 13, hour, minute, second).getTimeInMillis();
+    }
+
+    @Test
+    public void shouldRunAtOnceAndThenAtInterval() {
+        CollectionSchedule schedule = CollectionSchedule.create(new MockEnvironment()
+            .withProperty("xroad-monitor-collector.schedule.cron", "")
+            .withProperty("xroad-monitor-collector.schedule.interval", String.valueOf(INTERVAL)));
+        long now = timeOf(8, 15, 0);
+        assertEquals(now, schedule.first(now));
+        assertEquals(now + INTERVAL, schedule.next(now));
+    }
+
+    @Test
+    public void shouldRunAtCronTimes() {
+        CollectionSchedule schedule = CollectionSchedule.create(new MockEnvironment()
+            .withProperty("xroad-monitor-collector.schedule.cron", "0 15 * * * *")
+            .withProperty("xroad-monitor-collector.schedule.interval", String.valueOf(INTERVAL)));
+        assertEquals(timeOf(8, 15, 0), schedule.first(timeOf(8, 0, 30)));
+        assertEquals(timeOf(9, 15, 0), schedule.next(timeOf(8, 15, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidCronExpression() {
+        CollectionSchedule.create(new MockEnvironment()
+            .withProperty("xroad-monitor-collector.schedule.cron", "15 8 * * *"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidInterval() {
+        CollectionSchedule.create(new MockEnvironment()
+            .withProperty("xroad-monitor-collector.schedule.interval", "0"));
+    }
+}
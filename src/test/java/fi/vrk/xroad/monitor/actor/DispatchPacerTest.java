@@ -0,0 +1,104 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.actor;
+
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link DispatchPacer}
+ */
+public class DispatchPacerTest {
+
+    private static final long NOW = 1523600000000L;
+    private static final long WINDOW = 60000;
+    private static final int REQUESTS = 100;
+
+    @Test
+    public void shouldDispatchAtOnceByDefault() {
+        DispatchPacer pacer = DispatchPacer.create(new MockEnvironment());
+        pacer.start(NOW, REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            assertEquals(0, pacer.delay(NOW));
+            pacer.dispatched();
+        }
+    }
+
+    @Test
+    public void shouldStaggerRequestsEvenlyAcrossWindow() {
+        DispatchPacer pacer = DispatchPacer.create(new MockEnvironment()
+            .withProperty("xroad-monitor-collector.dispatch.mode", "staggered")
+            .withProperty("xroad-monitor-collector.dispatch.window", String.valueOf(WINDOW))
+            .withProperty("xroad-monitor-collector.dispatch.jitter", "0"));
+        pacer.start(NOW, REQUESTS);
+        long now = NOW;
+        for (int i = 0; i < REQUESTS; i++) {
+            now += pacer.delay(now);
+            assertEquals(NOW + i * WINDOW / REQUESTS, now);
+            pacer.dispatched();
+        }
+    }
+
+    @Test
+    public void shouldCatchUpRequestsHeldBack() {
+        DispatchPacer pacer = new DispatchPacer(WINDOW, 0, new Random());
+        pacer.start(NOW, REQUESTS);
+        pacer.dispatched();
+        pacer.dispatched();
+        assertEquals(0, pacer.delay(NOW + 2 * WINDOW / REQUESTS));
+    }
+
+    @Test
+    public void shouldKeepJitteredRequestsWithinWindow() {
+        final double jitter = 0.5;
+        DispatchPacer pacer = new DispatchPacer(WINDOW, jitter, new Random(REQUESTS));
+        pacer.start(NOW, REQUESTS);
+        long now = NOW;
+        long previous = NOW;
+        for (int i = 0; i < REQUESTS; i++) {
+            now += pacer.delay(now);
+            assertTrue(i == 0 || now - previous >= (long) ((1 - jitter) * WINDOW / REQUESTS));
+            previous = now;
+            pacer.dispatched();
+        }
+        // jitter varies the intervals but the run still ends close to the end of the window
+        assertTrue(now > NOW + WINDOW * (1 - jitter) && now < NOW + WINDOW * (1 + jitter));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownMode() {
+        DispatchPacer.create(new MockEnvironment().withProperty("xroad-monitor-collector.dispatch.mode", "burst"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidJitter() {
+        DispatchPacer.create(new MockEnvironment()
+            .withProperty("xroad-monitor-collector.dispatch.mode", "staggered")
+            .withProperty("xroad-monitor-collector.dispatch.jitter", "2"));
+    }
+}
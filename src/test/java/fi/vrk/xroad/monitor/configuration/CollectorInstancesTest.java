@@ -0,0 +1,149 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.configuration;
+
+import fi.vrk.xroad.monitor.history.LatencyHistory;
+import fi.vrk.xroad.monitor.util.MonitorCollectorPropertyKeys;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.core.type.classreading.SimpleMetadataReaderFactory;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link CollectorInstances}
+ */
+public class CollectorInstancesTest {
+
+    private AnnotationConfigApplicationContext parent;
+    private CollectorInstances instances;
+
+    /**
+     * Creates the parent context with two instances
+     */
+    @Before
+    public void setup() {
+        MockEnvironment environment = new MockEnvironment()
+            .withProperty(MonitorCollectorPropertyKeys.INSTANCES, " FI, EE ,,FI")
+            .withProperty(MonitorCollectorPropertyKeys.INSTANCE, "FI")
+            .withProperty(MonitorCollectorPropertyKeys.CLIENT_URL, "http://fi.example.com")
+            .withProperty(MonitorCollectorPropertyKeys.CLIENT_MEMBER_CODE, "7777")
+            .withProperty("xroad-monitor-collector-instance.EE." + MonitorCollectorPropertyKeys.INSTANCE, "EE")
+            .withProperty("xroad-monitor-collector-instance.EE." + MonitorCollectorPropertyKeys.CLIENT_URL,
+                "http://ee.example.com");
+        parent = new AnnotationConfigApplicationContext();
+        parent.setEnvironment(environment);
+        parent.register(CollectorInstances.class, SharedComponent.class);
+        parent.refresh();
+        instances = parent.getBean(CollectorInstances.class);
+    }
+
+    /**
+     * Closes the parent context
+     */
+    @After
+    public void tearDown() {
+        parent.close();
+    }
+
+    @Test
+    public void shouldParseInstanceNames() {
+        assertEquals(Arrays.asList("FI", "EE"), instances.getNames());
+    }
+
+    @Test
+    public void shouldOverridePropertiesWithInstancePrefix() {
+        Environment fi = instances.createContext("FI", InstanceComponent.class)
+            .getBean(InstanceComponent.class).environment;
+        Environment ee = instances.createContext("EE", InstanceComponent.class)
+            .getBean(InstanceComponent.class).environment;
+
+        assertEquals("FI", fi.getProperty(MonitorCollectorPropertyKeys.INSTANCE));
+        assertEquals("http://fi.example.com", fi.getProperty(MonitorCollectorPropertyKeys.CLIENT_URL));
+        assertEquals("EE", ee.getProperty(MonitorCollectorPropertyKeys.INSTANCE));
+        assertEquals("http://ee.example.com", ee.getProperty(MonitorCollectorPropertyKeys.CLIENT_URL));
+        assertEquals("7777", ee.getProperty(MonitorCollectorPropertyKeys.CLIENT_MEMBER_CODE));
+    }
+
+    @Test
+    public void shouldShareParentComponents() {
+        ApplicationContext fi = instances.createContext("FI", InstanceComponent.class);
+        ApplicationContext ee = instances.createContext("EE", InstanceComponent.class);
+
+        assertNotSame(fi.getBean(InstanceComponent.class), ee.getBean(InstanceComponent.class));
+        assertSame(parent.getBean(SharedComponent.class), fi.getBean(InstanceComponent.class).shared);
+        assertSame(parent.getBean(SharedComponent.class), ee.getBean(InstanceComponent.class).shared);
+    }
+
+    @Test
+    public void shouldCloseInstanceContexts() {
+        AnnotationConfigApplicationContext fi =
+            (AnnotationConfigApplicationContext) instances.createContext("FI", InstanceComponent.class);
+        parent.close();
+        assertFalse(fi.isActive());
+    }
+
+    @Test
+    public void shouldExcludeInstanceComponentsFromParentScan() throws IOException {
+        MetadataReaderFactory factory = new SimpleMetadataReaderFactory();
+        CollectorInstances.InstanceComponentFilter filter = new CollectorInstances.InstanceComponentFilter();
+        filter.setEnvironment(parent.getEnvironment());
+        assertTrue(filter.match(factory.getMetadataReader(LatencyHistory.class.getName()), factory));
+        assertFalse(filter.match(factory.getMetadataReader(CollectorInstances.class.getName()), factory));
+
+        // without instances the parent context collects by itself
+        filter.setEnvironment(new MockEnvironment());
+        assertFalse(filter.match(factory.getMetadataReader(LatencyHistory.class.getName()), factory));
+    }
+
+    /**
+     * Component created for each instance
+     */
+    static class InstanceComponent {
+        @Autowired
+        private Environment environment;
+
+        @Autowired
+        private SharedComponent shared;
+    }
+
+    /**
+     * Component shared by instances
+     */
+    static class SharedComponent {
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.elasticsearch;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for index name resolution in {@link EnvMonitorDataStorageServiceImpl}
+ */
+public class EnvMonitorDataStorageServiceImplTest {
+
+  private static long timeOf(int year, int month, int date, int hour, int minute, int second, int millis) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.set(year, month, date, hour, minute, second);
+    calendar.set(Calendar.MILLISECOND, millis);
+    return calendar.getTimeInMillis();
+  }
+
+  @Test
+  public void currentIndexShouldBeValidUntilMidnight() {
+    EnvMonitorDataStorageServiceImpl.CurrentIndex index = new EnvMonitorDataStorageServiceImpl.CurrentIndex(
+        "envdata", timeOf(2017, Calendar.DECEMBER, 31, 12, 30, 15, 500));
+    assertEquals("envdata-2017-12-31", index.getName());
+    assertEquals(timeOf(2018, Calendar.JANUARY, 1, 0, 0, 0, 0), index.getValidUntil());
+  }
+
+  @Test
+  public void currentIndexShouldChangeAtMidnight() {
+    long midnight = timeOf(2018, Calendar.MARCH, 2, 0, 0, 0, 0);
+    assertEquals("envdata-2018-03-01",
+        new EnvMonitorDataStorageServiceImpl.CurrentIndex("envdata", midnight - 1).getName());
+    assertEquals("envdata-2018-03-02",
+        new EnvMonitorDataStorageServiceImpl.CurrentIndex("envdata", midnight).getName());
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.extractor;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.skyscreamer.jsonassert.JSONAssert;
+
+import javax.xml.datatype.DatatypeFactory;
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MonitorDataDocumentWriter}, documents must be the same as when built with {@link JSONObject}
+ */
+public class MonitorDataDocumentWriterTest {
+
+    @Test
+    public void shouldFormatValuesLikeJsonObject() throws Exception {
+        JSONObject expected = new JSONObject();
+        expected.put("integer", new BigDecimal("1.0"));
+        expected.put("decimal", new BigDecimal("5937167892.480"));
+        expected.put("updated", DatatypeFactory.newInstance().newXMLGregorianCalendar("2017-08-07T08:20:34.905Z"));
+        expected.put("string", "a \"quoted\" value");
+
+        String document = MonitorDataDocumentWriter.write(writer -> {
+            writer.startObject();
+            writer.field("integer", new BigDecimal("1.0"));
+            writer.field("decimal", new BigDecimal("5937167892.480"));
+            writer.field("updated",
+                DatatypeFactory.newInstance().newXMLGregorianCalendar("2017-08-07T08:20:34.905Z"));
+            writer.field("string", "a \"quoted\" value");
+            writer.field("missing", (String) null);
+            writer.endObject();
+        }).utf8ToString();
+
+        JSONAssert.assertEquals(expected.toString(), document, true);
+        assertTrue(document.contains("\"integer\":1,"));
+    }
+
+    @Test
+    public void shouldWriteArraysAndNestedObjects() {
+        String document = MonitorDataDocumentWriter.write(writer -> {
+            writer.startObject();
+            writer.startArray("Processes");
+            writer.value("java 1");
+            writer.startObject();
+            writer.field("name", "package");
+            writer.endObject();
+            writer.endArray();
+            writer.startObject("histogram");
+            writer.field("min", BigDecimal.ONE);
+            writer.endObject();
+            writer.endObject();
+        }).utf8ToString();
+
+        JSONAssert.assertEquals("{\"Processes\":[\"java 1\",{\"name\":\"package\"}],\"histogram\":{\"min\":1}}",
+            document, true);
+    }
+
+    @Test
+    public void shouldKeepLastValueOfDuplicateKey() {
+        String document = MonitorDataDocumentWriter.write(writer -> {
+            writer.startObject();
+            writer.field("name", "first");
+            writer.field("other", "value");
+            writer.field("name", "last");
+            writer.endObject();
+        }).utf8ToString();
+
+        JSONAssert.assertEquals("{\"name\":\"last\",\"other\":\"value\"}", document, true);
+    }
+
+    @Test
+    public void shouldRemoveFieldOverwrittenWithNull() {
+        String document = MonitorDataDocumentWriter.write(writer -> {
+            writer.startObject();
+            writer.field("name", "first");
+            writer.field("other", "value");
+            writer.field("name", (BigDecimal) null);
+            writer.endObject();
+        }).utf8ToString();
+
+        JSONAssert.assertEquals("{\"other\":\"value\"}", document, true);
+    }
+
+    @Test
+    public void shouldWriteKeyedMetricsAsFieldsByDefault() {
+        String document = MonitorDataDocumentWriter.write(writer -> {
+            writer.startObject();
+            writer.field("DiskSpaceFree_/", new BigDecimal("10"));
+            writer.field("DiskSpaceFree_/var", new BigDecimal("5"));
+            writer.endObject();
+        }).utf8ToString();
+
+        JSONAssert.assertEquals("{\"DiskSpaceFree_/\":10,\"DiskSpaceFree_/var\":5}", document, true);
+    }
+
+    @Test
+    public void shouldWriteKeyedMetricsAsArrays() {
+        String document = MonitorDataDocumentWriter.write(writer -> {
+            writer.startObject();
+            writer.field("DiskSpaceFree_/", new BigDecimal("10"));
+            writer.field("DiskSpaceTotal_/", new BigDecimal("20"));
+            writer.field("DiskSpaceFree_/var", new BigDecimal("5"));
+            writer.field("DiskSpaceFree_/tmp", "3");
+            writer.field("DiskSpaceFree_/tmp", (String) null);
+            writer.field("Other_/", BigDecimal.ONE);
+            writer.startArray("Processes");
+            writer.startObject();
+            writer.field("DiskSpaceFree_/", "nested");
+            writer.endObject();
+            writer.endArray();
+            writer.endObject();
+        }, true).utf8ToString();
+
+        JSONAssert.assertEquals("{\"DiskSpaceFree\":[{\"key\":\"/\",\"value\":10},{\"key\":\"/var\",\"value\":5}],"
+            + "\"DiskSpaceTotal\":[{\"key\":\"/\",\"value\":20}],\"Other_/\":1,"
+            + "\"Processes\":[{\"DiskSpaceFree_/\":\"nested\"}]}", document, true);
+    }
+}
@@ -30,14 +30,21 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.core.env.Environment;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -90,4 +97,36 @@ public class MonitorDataRequestBuilderTest {
         assertEquals(payload.getChildNodes().item(0).getTextContent(), "OperatingSystem");
         assertEquals(payload.getChildNodes().item(1).getTextContent(), "Processes");
     }
+
+    @Test
+    public void shouldEscapeSecurityServerInformation() throws ParserConfigurationException, IOException,
+            SAXException {
+        final SecurityServerInfo info = new SecurityServerInfo("ss<1>", "address", "GOV", "A&B");
+        byte[] xmlRequest = request.getRequestBytes(info);
+
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xmlRequest));
+        assertEquals("A&B", document.getElementsByTagName("id:memberCode").item(1).getTextContent());
+        assertEquals("A&B", document.getElementsByTagName("id:memberCode").item(2).getTextContent());
+        assertEquals("ss<1>", document.getElementsByTagName("id:serverCode").item(0).getTextContent());
+        assertFalse(new String(xmlRequest, StandardCharsets.UTF_8).contains("@@"));
+    }
+
+    @Test
+    public void shouldCreateNewIdForEachRequest() throws ParserConfigurationException, IOException, SAXException {
+        final SecurityServerInfo info = new SecurityServerInfo("ss1", "address", "GOV", "1234");
+        DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        String id1 = builder.parse(new ByteArrayInputStream(request.getRequestBytes(info)))
+                .getElementsByTagName("xrd:id").item(0).getTextContent();
+        String id2 = builder.parse(new ByteArrayInputStream(request.getRequestBytes(info)))
+                .getElementsByTagName("xrd:id").item(0).getTextContent();
+        assertNotEquals(id1, id2);
+    }
+
+    @Test
+    public void shouldCreateVersion4Ids() {
+        UUID id = UUID.fromString(MonitorDataRequestBuilder.createId());
+        assertEquals(4, id.version());
+        assertEquals(2, id.variant());
+    }
 }
@@ -35,6 +35,10 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
 /**
  * Tests for {@link MonitorDataResponseParser}
  */
@@ -45,7 +49,13 @@ public class MonitorDataResponseParserTest {
 
     private static final String RESPONSE_XML_FILE = "src/test/resources/exampleResponse.xml";
     private static final String RESPONSE_JSON_FILE = "src/test/resources/exampleResponse.json";
+    private static final String RESPONSE_KEYED_JSON_FILE = "src/test/resources/exampleResponseKeyed.json";
     private static final String XROAD_INSTANCE = "FI";
+    private static final String FAULT_XML = "<SOAP-ENV:Envelope "
+            + "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\"><SOAP-ENV:Body><SOAP-ENV:Fault>"
+            + "<faultcode>Server.ServerProxy.NetworkError</faultcode>"
+            + "<faultstring>Could not connect to any target host</faultstring>"
+            + "</SOAP-ENV:Fault></SOAP-ENV:Body></SOAP-ENV:Envelope>";
 
     @Test
     public void testEmpty() {
@@ -73,4 +83,37 @@ public class MonitorDataResponseParserTest {
 
         }
     }
+
+    @Test
+    public void parseResponseMetricsToKeyedJsonTest() throws IOException {
+        SecurityServerInfo info = new SecurityServerInfo("gdev-ss1.example.com",
+                "gdev-ss1.example.com", "GOV", "1710128-9");
+        try (FileInputStream inputStream = new FileInputStream(RESPONSE_XML_FILE);
+             FileInputStream is = new FileInputStream(RESPONSE_KEYED_JSON_FILE)) {
+            String responseString = IOUtils.toString(inputStream, Charset.defaultCharset());
+            String parsedJson = new MonitorDataResponseParser().getMetricDocument(responseString, info,
+                XROAD_INSTANCE, true).utf8ToString();
+            JSONAssert.assertEquals(IOUtils.toString(is, Charset.defaultCharset()), parsedJson, true);
+        }
+    }
+
+    @Test
+    public void shouldThrowFaultExceptionForSoapFault() {
+        SecurityServerInfo info = new SecurityServerInfo("gdev-ss1.example.com",
+                "gdev-ss1.example.com", "GOV", "1710128-9");
+        try {
+            new MonitorDataResponseParser().getMetricInformation(FAULT_XML, info, XROAD_INSTANCE);
+            fail("Expected MonitorDataFaultException");
+        } catch (MonitorDataFaultException e) {
+            assertEquals("Server.ServerProxy.NetworkError Could not connect to any target host", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldParseFaultDescription() {
+        MonitorDataResponseParser parser = new MonitorDataResponseParser();
+        assertEquals("Server.ServerProxy.NetworkError Could not connect to any target host",
+                parser.getFaultDescription(FAULT_XML));
+        assertNull(parser.getFaultDescription("<html>Bad gateway</html>"));
+    }
 }
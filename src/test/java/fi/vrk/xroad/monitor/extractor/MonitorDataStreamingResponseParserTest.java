@@ -0,0 +1,115 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.extractor;
+
+import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link MonitorDataStreamingResponseParser}, the output must be the same as with
+ * {@link MonitorDataResponseParser}
+ */
+@SpringBootTest(classes = MonitorDataStreamingResponseParser.class)
+@RunWith(SpringRunner.class)
+public class MonitorDataStreamingResponseParserTest {
+
+    private static final String RESPONSE_XML_FILE = "src/test/resources/exampleResponse.xml";
+    private static final String RESPONSE_JSON_FILE = "src/test/resources/exampleResponse.json";
+    private static final String RESPONSE_KEYED_JSON_FILE = "src/test/resources/exampleResponseKeyed.json";
+    private static final String METRIC_SET_XML_FILE = "src/test/resources/envmonitor.xml";
+    private static final String XROAD_INSTANCE = "FI";
+    private static final String FAULT_XML = "<SOAP-ENV:Envelope "
+            + "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\"><SOAP-ENV:Body><SOAP-ENV:Fault>"
+            + "<faultcode>Server.ServerProxy.NetworkError</faultcode>"
+            + "<faultstring>Could not connect to any target host</faultstring>"
+            + "</SOAP-ENV:Fault></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+
+    private final SecurityServerInfo info = new SecurityServerInfo("gdev-ss1.example.com",
+            "gdev-ss1.example.com", "GOV", "1710128-9");
+
+    @Test
+    public void parseResponseMetricsToJsonTest() throws IOException {
+        String parsedJson = new MonitorDataStreamingResponseParser().getMetricInformation(
+                readFile(RESPONSE_XML_FILE), info, XROAD_INSTANCE);
+        JSONAssert.assertEquals(readFile(RESPONSE_JSON_FILE), parsedJson, true);
+    }
+
+    @Test
+    public void parseResponseMetricsToKeyedJsonTest() throws IOException {
+        String parsedJson = new MonitorDataStreamingResponseParser().getMetricDocument(
+                readFile(RESPONSE_XML_FILE), info, XROAD_INSTANCE, true).utf8ToString();
+        JSONAssert.assertEquals(readFile(RESPONSE_KEYED_JSON_FILE), parsedJson, true);
+    }
+
+    @Test
+    public void shouldProduceSameJsonAsResponseParser() throws IOException {
+        String response = readFile(RESPONSE_XML_FILE);
+        JSONAssert.assertEquals(
+                new MonitorDataResponseParser().getMetricInformation(response, info, XROAD_INSTANCE),
+                new MonitorDataStreamingResponseParser().getMetricInformation(response, info, XROAD_INSTANCE),
+                true);
+    }
+
+    @Test
+    public void shouldProduceSameJsonAsResponseParserForLargeMetricSet() throws IOException {
+        String response = "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+                + "xmlns:m=\"http://x-road.eu/xsd/monitoring\"><SOAP-ENV:Body><m:getSecurityServerMetricsResponse>"
+                + readFile(METRIC_SET_XML_FILE)
+                + "</m:getSecurityServerMetricsResponse></SOAP-ENV:Body></SOAP-ENV:Envelope>";
+        JSONAssert.assertEquals(
+                new MonitorDataResponseParser().getMetricInformation(response, info, XROAD_INSTANCE),
+                new MonitorDataStreamingResponseParser().getMetricInformation(response, info, XROAD_INSTANCE),
+                true);
+    }
+
+    @Test
+    public void shouldThrowFaultExceptionForSoapFault() {
+        try {
+            new MonitorDataStreamingResponseParser().getMetricInformation(FAULT_XML, info, XROAD_INSTANCE);
+            fail("Expected MonitorDataFaultException");
+        } catch (MonitorDataFaultException e) {
+            assertEquals(new MonitorDataResponseParser().getFaultDescription(FAULT_XML), e.getMessage());
+        }
+    }
+
+    @Test(expected = MonitorDataFaultException.class)
+    public void shouldThrowFaultExceptionForInvalidXml() {
+        new MonitorDataStreamingResponseParser().getMetricInformation("<not xml", info, XROAD_INSTANCE);
+    }
+
+    private static String readFile(String path) throws IOException {
+        return FileUtils.readFileToString(new File(path), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.extractor;
+
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests for {@link RequestHedging}
+ */
+public class RequestHedgingTest {
+
+    private static final int SAMPLES = 100;
+
+    private static void recordMillis(RequestHedging hedging, int from, int to) {
+        for (int i = from; i <= to; i++) {
+            hedging.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+    }
+
+    @Test
+    public void shouldNotHedgeByDefault() {
+        RequestHedging hedging = RequestHedging.create(new MockEnvironment());
+        recordMillis(hedging, 1, SAMPLES);
+        assertFalse(hedging.isEnabled());
+        assertEquals(-1, hedging.getDelay());
+    }
+
+    @Test
+    public void shouldHedgeAfterPercentileOfRecentLatencies() {
+        RequestHedging hedging = new RequestHedging(true, 95.0, 0);
+        recordMillis(hedging, 1, 10);
+        assertEquals(-1, hedging.getDelay());
+        recordMillis(hedging, 11, SAMPLES);
+        assertEquals(95, hedging.getDelay());
+    }
+
+    @Test
+    public void shouldNotHedgeBeforeMinimumDelay() {
+        final long minDelay = 500;
+        RequestHedging hedging = new RequestHedging(true, 95.0, minDelay);
+        recordMillis(hedging, 1, SAMPLES);
+        assertEquals(minDelay, hedging.getDelay());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidPercentile() {
+        RequestHedging.create(new MockEnvironment()
+            .withProperty("xroad-monitor-collector-client.hedge.percentile", "100"));
+    }
+}
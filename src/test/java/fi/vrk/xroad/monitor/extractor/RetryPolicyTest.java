@@ -0,0 +1,123 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.extractor;
+
+import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import javax.net.ssl.SSLHandshakeException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link RetryPolicy}
+ */
+public class RetryPolicyTest {
+
+    private static final SecurityServerInfo INFO = new SecurityServerInfo("server", "address", "GOV", "1");
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long INITIAL_DELAY = 100;
+    private static final long MAX_DELAY = 300;
+
+    private static RetryPolicy createPolicy(double jitter) {
+        return new RetryPolicy(MAX_ATTEMPTS, INITIAL_DELAY, MAX_DELAY, jitter, Arrays.asList("NetworkError"),
+            new Random(1));
+    }
+
+    private static MonitorDataResult error(Throwable cause) {
+        return MonitorDataResult.createError(INFO, String.valueOf(cause), cause, 0, 0);
+    }
+
+    private static MonitorDataResult fault(String description) {
+        return MonitorDataResult.createError(INFO, description, null, 0, 0);
+    }
+
+    @Test
+    public void shouldNotRetryByDefault() {
+        RetryPolicy policy = RetryPolicy.create(new MockEnvironment());
+        assertFalse(policy.isEnabled());
+        assertEquals(-1, policy.getDelay(error(new SocketException("Connection reset")), 1));
+    }
+
+    @Test
+    public void shouldRetryTransientFailures() {
+        RetryPolicy policy = createPolicy(0);
+        assertTrue(policy.isRetryable(error(new SocketException("Connection reset"))));
+        assertTrue(policy.isRetryable(error(new ResourceAccessException("I/O error",
+            new SocketTimeoutException("Read timed out")))));
+        assertTrue(policy.isRetryable(error(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE))));
+        assertTrue(policy.isRetryable(fault("Server.ClientProxy.NetworkError Connection refused")));
+    }
+
+    @Test
+    public void shouldNotRetryFatalFailures() {
+        RetryPolicy policy = createPolicy(0);
+        assertFalse(policy.isRetryable(error(new UnknownHostException("unknown"))));
+        assertFalse(policy.isRetryable(error(new ResourceAccessException("I/O error",
+            new SSLHandshakeException("handshake")))));
+        assertFalse(policy.isRetryable(error(new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR))));
+        assertFalse(policy.isRetryable(error(new HttpClientErrorException(HttpStatus.BAD_REQUEST))));
+        assertFalse(policy.isRetryable(fault("Server.ServerProxy.AccessDenied Request is not allowed")));
+        assertFalse(policy.isRetryable(fault("Failed to parse response document")));
+        assertFalse(policy.isRetryable(MonitorDataResult.createError(INFO, "Failed unmarshalling XML to POJO",
+            new IllegalStateException(), 0, 0)));
+    }
+
+    @Test
+    public void shouldBackOffExponentiallyUpToMaximum() {
+        RetryPolicy policy = createPolicy(0);
+        MonitorDataResult result = error(new SocketException("Connection reset"));
+        assertEquals(INITIAL_DELAY, policy.getDelay(result, 1));
+        assertEquals(2 * INITIAL_DELAY, policy.getDelay(result, 2));
+        assertEquals(MAX_DELAY, policy.getDelay(result, 3));
+        assertEquals(-1, policy.getDelay(result, MAX_ATTEMPTS));
+    }
+
+    @Test
+    public void shouldShortenDelayByJitter() {
+        RetryPolicy policy = createPolicy(0.5);
+        MonitorDataResult result = error(new SocketException("Connection reset"));
+        for (int i = 0; i < 100; i++) {
+            final long delay = policy.getDelay(result, 2);
+            assertTrue(delay > INITIAL_DELAY && delay <= 2 * INITIAL_DELAY);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidJitter() {
+        RetryPolicy.create(new MockEnvironment()
+            .withProperty("xroad-monitor-collector-client.retry.jitter", "2"));
+    }
+}
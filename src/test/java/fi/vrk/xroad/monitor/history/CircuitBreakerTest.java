@@ -0,0 +1,125 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.history;
+
+import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link CircuitBreaker}
+ */
+public class CircuitBreakerTest {
+
+  private static final SecurityServerInfo INFO = new SecurityServerInfo("failing", "failing", "GOV", "1");
+  private static final long PROBE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+  private static final long LATENCY = TimeUnit.SECONDS.toNanos(1);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private MockEnvironment createEnvironment(boolean enabled) {
+    return new MockEnvironment()
+        .withProperty("xroad-monitor-collector-client.instance", "FI")
+        .withProperty("xroad-monitor-collector.latency-history.directory", folder.getRoot().getPath())
+        .withProperty("xroad-monitor-collector.circuit-breaker.enabled", String.valueOf(enabled))
+        .withProperty("xroad-monitor-collector.circuit-breaker.failure-threshold", "3")
+        .withProperty("xroad-monitor-collector.circuit-breaker.probe-interval", String.valueOf(PROBE_INTERVAL));
+  }
+
+  private static LatencyHistory createHistory(MockEnvironment environment) {
+    LatencyHistory history = new LatencyHistory();
+    ReflectionTestUtils.setField(history, "environment", environment);
+    history.init();
+    return history;
+  }
+
+  private static CircuitBreaker createCircuitBreaker(MockEnvironment environment, LatencyHistory history) {
+    CircuitBreaker circuitBreaker = new CircuitBreaker();
+    ReflectionTestUtils.setField(circuitBreaker, "environment", environment);
+    ReflectionTestUtils.setField(circuitBreaker, "latencyHistory", history);
+    circuitBreaker.init();
+    return circuitBreaker;
+  }
+
+  @Test
+  public void shouldOpenAfterConsecutiveFailures() {
+    MockEnvironment environment = createEnvironment(true);
+    LatencyHistory history = createHistory(environment);
+    CircuitBreaker circuitBreaker = createCircuitBreaker(environment, history);
+    history.record(INFO, LATENCY, false);
+    history.record(INFO, LATENCY, true);
+    history.record(INFO, LATENCY, false);
+    history.record(INFO, LATENCY, false);
+    assertFalse(circuitBreaker.isOpen(INFO, System.currentTimeMillis()));
+    history.record(INFO, LATENCY, false);
+    assertTrue(circuitBreaker.isOpen(INFO, System.currentTimeMillis()));
+  }
+
+  @Test
+  public void shouldProbeAfterInterval() {
+    MockEnvironment environment = createEnvironment(true);
+    LatencyHistory history = createHistory(environment);
+    CircuitBreaker circuitBreaker = createCircuitBreaker(environment, history);
+    for (int i = 0; i < 3; i++) {
+      history.record(INFO, LATENCY, false);
+    }
+    assertFalse(circuitBreaker.isOpen(INFO, System.currentTimeMillis() + PROBE_INTERVAL));
+    // a failed probe keeps the circuit open, a successful one closes it
+    history.record(INFO, LATENCY, false);
+    assertTrue(circuitBreaker.isOpen(INFO, System.currentTimeMillis()));
+    history.record(INFO, LATENCY, true);
+    assertFalse(circuitBreaker.isOpen(INFO, System.currentTimeMillis()));
+  }
+
+  @Test
+  public void shouldKeepCircuitOpenAcrossRuns() {
+    MockEnvironment environment = createEnvironment(true);
+    LatencyHistory history = createHistory(environment);
+    for (int i = 0; i < 3; i++) {
+      history.record(INFO, LATENCY, false);
+    }
+    history.save();
+    CircuitBreaker circuitBreaker = createCircuitBreaker(environment, createHistory(environment));
+    assertTrue(circuitBreaker.isOpen(INFO, System.currentTimeMillis()));
+  }
+
+  @Test
+  public void shouldNeverOpenWhenDisabled() {
+    MockEnvironment environment = createEnvironment(false);
+    LatencyHistory history = createHistory(environment);
+    CircuitBreaker circuitBreaker = createCircuitBreaker(environment, history);
+    for (int i = 0; i < 3; i++) {
+      history.record(INFO, LATENCY, false);
+    }
+    assertFalse(circuitBreaker.isOpen(INFO, System.currentTimeMillis()));
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.history;
+
+import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LatencyHistory}
+ */
+public class LatencyHistoryTest {
+
+  private static final SecurityServerInfo FAST = new SecurityServerInfo("fast", "fast", "GOV", "1");
+  private static final SecurityServerInfo SLOW = new SecurityServerInfo("slow", "slow", "GOV", "2");
+  private static final SecurityServerInfo FAILING = new SecurityServerInfo("failing", "failing", "GOV", "3");
+  private static final SecurityServerInfo NEW = new SecurityServerInfo("new", "new", "GOV", "4");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private LatencyHistory createHistory(boolean enabled) {
+    MockEnvironment environment = new MockEnvironment()
+        .withProperty("xroad-monitor-collector-client.instance", "FI")
+        .withProperty("xroad-monitor-collector.latency-history.enabled", String.valueOf(enabled))
+        .withProperty("xroad-monitor-collector.latency-history.directory", folder.getRoot().getPath());
+    LatencyHistory history = new LatencyHistory();
+    ReflectionTestUtils.setField(history, "environment", environment);
+    history.init();
+    return history;
+  }
+
+  private static void record(LatencyHistory history) {
+    final long second = TimeUnit.SECONDS.toNanos(1);
+    history.record(FAST, second / 10, true);
+    history.record(SLOW, 5 * second, true);
+    history.record(FAILING, 3 * second, false);
+  }
+
+  @Test
+  public void shouldOrderLongestExpectedRequestFirst() {
+    LatencyHistory history = createHistory(true);
+    record(history);
+    assertEquals(Arrays.asList(NEW, FAILING, SLOW, FAST),
+        history.order(Arrays.asList(FAST, SLOW, NEW, FAILING)));
+  }
+
+  @Test
+  public void shouldLoadSavedHistory() throws IOException {
+    LatencyHistory history = createHistory(true);
+    record(history);
+    history.save();
+    assertTrue(Files.exists(folder.getRoot().toPath().resolve("latency-history-FI.dat")));
+
+    List<SecurityServerInfo> order = createHistory(true).order(Arrays.asList(FAST, SLOW, FAILING));
+    assertEquals(Arrays.asList(FAILING, SLOW, FAST), order);
+  }
+
+  @Test
+  public void shouldKeepOrderWhenDisabled() {
+    LatencyHistory history = createHistory(false);
+    record(history);
+    history.save();
+    assertEquals(Arrays.asList(FAST, SLOW, FAILING), history.order(Arrays.asList(FAST, SLOW, FAILING)));
+    assertEquals(0, folder.getRoot().list().length);
+  }
+
+  @Test
+  public void shouldIgnoreCorruptedHistory() throws IOException {
+    Files.write(folder.getRoot().toPath().resolve("latency-history-FI.dat"), new byte[] {1, 2, 3});
+    LatencyHistory history = createHistory(true);
+    assertEquals(Arrays.asList(FAST, SLOW), history.order(Arrays.asList(FAST, SLOW)));
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.limiter;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link AimdConcurrencyLimiter}
+ */
+public class AimdConcurrencyLimiterTest {
+
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void shouldIncreaseWhileLatencyIsFlat() {
+        AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(3, 1, 20, 0.5, 2.0);
+        for (int i = 0; i < 100; i++) {
+            limiter.onSample(LATENCY, true, false);
+        }
+        assertEquals(20, limiter.getLimit());
+    }
+
+    @Test
+    public void shouldDecreaseOnFailureOncePerWindow() {
+        AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(16, 1, 20, 0.5, 2.0);
+        limiter.onSample(LATENCY, false, true);
+        assertEquals(8, limiter.getLimit());
+        // a burst of failures within the same window is counted as one congestion event
+        for (int i = 0; i < 5; i++) {
+            limiter.onSample(LATENCY, false, true);
+        }
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void shouldNotDecreaseOnTargetFault() {
+        AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(16, 1, 20, 0.5, 2.0);
+        // faults of the target security server say nothing about the capacity of the client security server
+        for (int i = 0; i < 10; i++) {
+            limiter.onSample(LATENCY, false, false);
+        }
+        assertEquals(16, limiter.getLimit());
+    }
+
+    @Test
+    public void shouldGrowAdditivelyAfterDecrease() {
+        AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(16, 1, 20, 0.5, 2.0);
+        limiter.onSample(LATENCY, false, true);
+        // roughly one window of successful requests increases the limit by one
+        for (int i = 0; i < 10; i++) {
+            limiter.onSample(LATENCY, true, false);
+        }
+        assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    public void shouldDecreaseWhenLatencyRises() {
+        AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(10, 1, 20, 0.5, 2.0);
+        for (int i = 0; i < 10; i++) {
+            limiter.onSample(LATENCY, true, false);
+        }
+        int limitBefore = limiter.getLimit();
+        for (int i = 0; i < 20; i++) {
+            limiter.onSample(LATENCY * 10, true, false);
+        }
+        assertTrue(limiter.getLimit() < limitBefore);
+    }
+
+    @Test
+    public void shouldNotGoBelowMinimum() {
+        AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(3, 2, 20, 0.1, 2.0);
+        for (int i = 0; i < 100; i++) {
+            limiter.onSample(LATENCY, false, true);
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidBackoffRatio() {
+        new AimdConcurrencyLimiter(3, 1, 20, 1.5, 2.0);
+    }
+}
@@ -27,15 +27,18 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.env.Environment;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
 import java.io.IOException;
 import java.util.Set;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.*;
 
 /**
@@ -48,6 +51,9 @@ public class SharedParamsParserTest {
     @Autowired
     private SharedParamsParser parser;
 
+    @Autowired
+    private Environment environment;
+
     private final SecurityServerInfo exampleInfo = new SecurityServerInfo(
             "servername-6.com",
             "servername-6.com",
@@ -61,4 +67,15 @@ public class SharedParamsParserTest {
         assertThat(resultList.size(), not(is(0)));
         assertTrue(resultList.contains(exampleInfo));
     }
+
+    @Test
+    public void testParseMatchesDocumentParse() throws IOException, SAXException, ParserConfigurationException {
+        File file = new File(environment.getProperty("xroad-monitor-collector.shared-params-file"));
+        assertEquals(SharedParamsParser.parseDocument(file), parser.parse());
+    }
+
+    @Test
+    public void testUnchangedFileIsNotParsedAgain() throws IOException, SAXException, ParserConfigurationException {
+        assertThat(parser.parse(), sameInstance(parser.parse()));
+    }
 }
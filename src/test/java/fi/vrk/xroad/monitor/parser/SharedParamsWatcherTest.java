@@ -0,0 +1,112 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.parser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link SharedParamsWatcher}
+ */
+public class SharedParamsWatcherTest {
+
+    private static final Path SHARED_PARAMS = Paths.get("src/test/resources/shared-params.xml");
+
+    private static final SecurityServerInfo REMOVED_INFO = new SecurityServerInfo(
+            "servername-6.com",
+            "servername-6.com",
+            "GOV",
+            "13775550");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private SharedParamsWatcher watcher;
+    private final BlockingQueue<Set<SecurityServerInfo>> changes = new LinkedBlockingQueue<>();
+
+    /**
+     * Creates the watcher for a copy of the shared parameters
+     */
+    @Before
+    public void setup() throws IOException {
+        file = folder.getRoot().toPath().resolve("shared-params.xml");
+        Files.copy(SHARED_PARAMS, file);
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("xroad-monitor-collector.shared-params-file", file.toString())
+                .withProperty("xroad-monitor-collector.shared-params-check-interval", "100");
+        SharedParamsParser parser = new SharedParamsParser();
+        ReflectionTestUtils.setField(parser, "environment", environment);
+        watcher = new SharedParamsWatcher();
+        ReflectionTestUtils.setField(watcher, "environment", environment);
+        ReflectionTestUtils.setField(watcher, "parser", parser);
+    }
+
+    /**
+     * Stops the watcher
+     */
+    @After
+    public void stop() throws IOException {
+        watcher.stop();
+    }
+
+    @Test
+    public void shouldParseOnlyChangedContent() throws Exception {
+        watcher.start(changes::add);
+        Set<SecurityServerInfo> infos = changes.poll();
+        assertNotNull(infos);
+        assertEquals(12, infos.size());
+
+        // rewriting the same content does not parse the file again
+        Files.write(file, Files.readAllBytes(SHARED_PARAMS));
+        assertNull(changes.poll(1, TimeUnit.SECONDS));
+
+        String content = new String(Files.readAllBytes(SHARED_PARAMS), StandardCharsets.UTF_8);
+        Files.write(file, content.replace("<serverCode>servername-6.com</serverCode>",
+                "<serverCode>servername-6b.com</serverCode>").getBytes(StandardCharsets.UTF_8));
+        infos = changes.poll(10, TimeUnit.SECONDS);
+        assertNotNull(infos);
+        assertEquals(12, infos.size());
+        assertFalse(infos.contains(REMOVED_INFO));
+    }
+}
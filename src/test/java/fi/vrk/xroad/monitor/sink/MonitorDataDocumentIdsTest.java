@@ -0,0 +1,86 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.sink;
+
+import fi.vrk.xroad.monitor.parser.SecurityServerInfo;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link MonitorDataDocumentIds}
+ */
+public class MonitorDataDocumentIdsTest {
+
+  private static final SecurityServerInfo SERVER = new SecurityServerInfo("server", "address", "GOV", "1234");
+
+  private static MonitorDataDocumentIds createDocumentIds(String documentId, String bucket) {
+    MockEnvironment environment = new MockEnvironment()
+        .withProperty("xroad-monitor-collector.document-id", documentId)
+        .withProperty("xroad-monitor-collector.document-id-bucket", bucket)
+        .withProperty("xroad-monitor-collector-client.instance", "FI");
+    MonitorDataDocumentIds documentIds = new MonitorDataDocumentIds();
+    ReflectionTestUtils.setField(documentIds, "environment", environment);
+    documentIds.init();
+    return documentIds;
+  }
+
+  private static long timestamp(int hour, int minute) {
+    return new GregorianCalendar(2017, Calendar.NOVEMBER, 22, hour, minute).getTimeInMillis();
+  }
+
+  @Test
+  public void shouldUseSameIdWithinLocalDay() {
+    MonitorDataDocumentIds documentIds = createDocumentIds("deterministic", "86400000");
+    String id = documentIds.create(SERVER, timestamp(0, 0));
+    assertEquals("SERVER:FI/GOV/1234/server@2017-11-22T00:00", id);
+    assertEquals(id, documentIds.create(SERVER, timestamp(23, 59)));
+    assertNotEquals(id, documentIds.create(SERVER, timestamp(0, 0) - 1));
+    assertNotEquals(id, documentIds.create(new SecurityServerInfo("other", "address", "GOV", "1234"),
+        timestamp(0, 0)));
+  }
+
+  @Test
+  public void shouldUseBucketStart() {
+    MonitorDataDocumentIds documentIds = createDocumentIds("deterministic", "900000");
+    assertEquals("SERVER:FI/GOV/1234/server@2017-11-22T10:15", documentIds.create(SERVER, timestamp(10, 29)));
+    assertEquals("SERVER:FI/GOV/1234/server@2017-11-22T10:30", documentIds.create(SERVER, timestamp(10, 30)));
+  }
+
+  @Test
+  public void shouldLeaveGeneratedIdsToSink() {
+    assertNull(createDocumentIds("generated", "86400000").create(SERVER, timestamp(10, 0)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectUnknownDocumentId() {
+    createDocumentIds("random", "86400000");
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.sink;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MonitorDataFileSink}
+ */
+public class MonitorDataFileSinkTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private MonitorDataFileSink sink;
+
+  /**
+   * Creates the sink writing to a temporary folder
+   */
+  @Before
+  public void setup() throws IOException {
+    MockEnvironment environment = new MockEnvironment()
+        .withProperty("xroad-monitor-collector-file-sink.directory", folder.getRoot().getPath())
+        .withProperty("xroad-monitor-collector-file-sink.max-file-size-mb", "1");
+    sink = new MonitorDataFileSink();
+    ReflectionTestUtils.setField(sink, "environment", environment);
+    sink.init();
+  }
+
+  private File[] listFiles() {
+    File[] files = folder.getRoot().listFiles();
+    Arrays.sort(files);
+    return files;
+  }
+
+  private static List<String> readLines(File file) throws IOException {
+    try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+      return IOUtils.readLines(in, StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void shouldWriteDocumentPerLine() throws Exception {
+    sink.save(null, "{\"a\":1}").get();
+    sink.save("server \"1\"@2017-06-01T00:00", "{\"b\":\"\\n\"}").get();
+    assertTrue(listFiles()[0].getName().endsWith(".ndjson.gz.part"));
+    assertTrue(sink.flush().get());
+    File[] files = listFiles();
+    assertEquals(1, files.length);
+    assertTrue(files[0].getName().endsWith(".ndjson.gz"));
+    assertEquals(Arrays.asList("{\"index\":{}}", "{\"a\":1}",
+        "{\"index\":{\"_id\":\"server \\\"1\\\"@2017-06-01T00:00\"}}", "{\"b\":\"\\n\"}"), readLines(files[0]));
+  }
+
+  @Test
+  public void shouldRollFileAtMaximumCompressedSize() throws Exception {
+    // random characters do not compress much, each document takes over half of the maximum size
+    Random random = new Random(1);
+    char[] padding = new char[1024 * 1024];
+    for (int i = 0; i < padding.length; i++) {
+      padding[i] = (char) ('a' + random.nextInt(26));
+    }
+    String json = "{\"padding\":\"" + new String(padding) + "\"}";
+    sink.save(null, json).get();
+    sink.save(null, json).get();
+    sink.save(null, json).get();
+    sink.shutdown();
+    File[] files = listFiles();
+    assertEquals(2, files.length);
+    // index action and document lines
+    assertEquals(4, readLines(files[0]).size());
+    assertEquals(2, readLines(files[1]).size());
+  }
+
+  @Test
+  public void shouldNotRollFileBeforeCompressedSizeIsReached() throws Exception {
+    char[] padding = new char[600 * 1024];
+    Arrays.fill(padding, 'x');
+    String json = "{\"padding\":\"" + new String(padding) + "\"}";
+    sink.save(null, json).get();
+    sink.save(null, json).get();
+    sink.save(null, json).get();
+    sink.shutdown();
+    File[] files = listFiles();
+    // the documents are larger than the maximum size only before compression
+    assertEquals(1, files.length);
+    assertEquals(6, readLines(files[0]).size());
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * The MIT License
+ * Copyright (c) 2017, Population Register Centre (VRK)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.vrk.xroad.monitor.spool;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MonitorDataSpool}
+ */
+public class MonitorDataSpoolTest {
+
+  private static final String DOCUMENT = "{\"serverCode\":\"gdev-ss1.example.com\",\"metrics\":[1,2,3]}";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private MonitorDataSpool createSpool(boolean compress, int segmentSizeMb) {
+    MockEnvironment environment = new MockEnvironment()
+        .withProperty("xroad-monitor-collector-elasticsearch.spool.enabled", "true")
+        .withProperty("xroad-monitor-collector-elasticsearch.spool.directory", folder.getRoot().getPath())
+        .withProperty("xroad-monitor-collector-elasticsearch.spool.segment-size-mb", String.valueOf(segmentSizeMb))
+        .withProperty("xroad-monitor-collector-elasticsearch.spool.compress", String.valueOf(compress));
+    MonitorDataSpool spool = new MonitorDataSpool();
+    ReflectionTestUtils.setField(spool, "environment", environment);
+    spool.init();
+    return spool;
+  }
+
+  private static SpoolRecord record(int i) {
+    return new SpoolRecord("envdata-2018-03-01", "id" + i, new BytesArray(DOCUMENT.replace("1", "1" + i)));
+  }
+
+  private static void assertRecord(SpoolRecord expected, SpoolRecord actual) {
+    assertEquals(expected.getIndex(), actual.getIndex());
+    assertEquals(expected.getId(), actual.getId());
+    assertEquals(expected.getDocument().utf8ToString(), actual.getDocument().utf8ToString());
+  }
+
+  @Test
+  public void shouldReadAppendedRecords() throws IOException {
+    for (boolean compress : new boolean[] {true, false}) {
+      MonitorDataSpool spool = createSpool(compress, 1);
+      assertFalse(spool.isPending());
+      spool.append(record(1));
+      spool.append(record(2));
+      assertTrue(spool.isPending());
+      Path segment = spool.nextSegment();
+      List<SpoolRecord> records = MonitorDataSpool.read(segment);
+      assertEquals(2, records.size());
+      assertRecord(record(1), records.get(0));
+      assertRecord(record(2), records.get(1));
+      spool.delete(segment);
+      assertFalse(spool.isPending());
+      assertNull(spool.nextSegment());
+    }
+  }
+
+  @Test
+  public void shouldReadRecordsOneAtATime() throws IOException {
+    MonitorDataSpool spool = createSpool(true, 1);
+    spool.append(record(1));
+    spool.append(record(2));
+    try (MonitorDataSpool.SegmentReader reader = MonitorDataSpool.open(spool.nextSegment())) {
+      assertRecord(record(1), reader.next());
+      assertRecord(record(2), reader.next());
+      assertNull(reader.next());
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void shouldReplaySegmentsLeftByEarlierRun() throws IOException {
+    MonitorDataSpool spool = createSpool(true, 1);
+    spool.append(record(1));
+    spool.shutdown();
+    spool = createSpool(true, 1);
+    assertTrue(spool.isPending());
+    spool.append(record(2));
+    Path first = spool.nextSegment();
+    assertRecord(record(1), MonitorDataSpool.read(first).get(0));
+    spool.delete(first);
+    Path second = spool.nextSegment();
+    assertRecord(record(2), MonitorDataSpool.read(second).get(0));
+    assertTrue(second.getFileName().toString().compareTo(first.getFileName().toString()) > 0);
+  }
+
+  @Test
+  public void shouldStopAtTornRecord() throws IOException {
+    MonitorDataSpool spool = createSpool(false, 1);
+    spool.append(record(1));
+    spool.append(record(2));
+    Path segment = spool.nextSegment();
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.truncate(Files.size(segment) - 1);
+    }
+    List<SpoolRecord> records = MonitorDataSpool.read(segment);
+    assertEquals(1, records.size());
+    assertRecord(record(1), records.get(0));
+  }
+
+  @Test
+  public void shouldStopAtCorruptedRecord() throws IOException {
+    MonitorDataSpool spool = createSpool(false, 1);
+    spool.append(record(1));
+    spool.append(record(2));
+    Path segment = spool.nextSegment();
+    byte[] bytes = Files.readAllBytes(segment);
+    bytes[bytes.length - 2] ^= 1;
+    Files.write(segment, bytes);
+    List<SpoolRecord> records = MonitorDataSpool.read(segment);
+    assertEquals(1, records.size());
+    assertRecord(record(1), records.get(0));
+  }
+}